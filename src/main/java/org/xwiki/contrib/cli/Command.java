@@ -24,6 +24,7 @@ import java.nio.file.Path;
 import java.util.Map;
 
 import org.xwiki.contrib.cli.document.MultipleDoc;
+import org.xwiki.contrib.cli.document.Projection;
 
 import static java.lang.System.err;
 import static java.lang.System.out;
@@ -59,6 +60,11 @@ import static java.lang.System.out;
  * @param debug enable debug.
  * @param pom add automatically a pom file to make easier the edition with an IDE.
  * @param acceptNewDocument give the possibility to add new document.
+ * @param connectTimeout timeout in seconds to establish a connection to the wiki, 0 to use the default one.
+ * @param requestTimeout timeout in seconds to wait for a response from the wiki, 0 to wait indefinitely.
+ * @param maxRequests maximum number of requests sent to the wiki at the same time, 0 to use the default one.
+ * @param attrTimeout time in seconds the attributes of the files, the directory listings and the pages of a mounted
+ *     wiki are kept, 0 not to keep them, negative to use the default time.
  *
  * @version $Id$
  */
@@ -90,7 +96,11 @@ public record Command(
     String fileExtension,
     boolean debug,
     boolean pom,
-    boolean acceptNewDocument)
+    boolean acceptNewDocument,
+    int connectTimeout,
+    int requestTimeout,
+    int maxRequests,
+    int attrTimeout)
 {
     private static final String LINE = "\n\u001B[32m-----\u001B[0m";
 
@@ -150,6 +160,13 @@ public record Command(
             --write-to-xml-dir DIR   Same as --write-to-xml but for a full wiki directory
             --xml-dir DIR            Same as --read-from-xml-dir DIR --write-to-xml-dir DIR
             -H 'Header-Name: Val'    Add a custom HTTP header (repeat to have several ones)
+            --connect-timeout SEC    Give up connecting to the wiki after SEC seconds (default: 30)
+            --request-timeout SEC    Give up waiting for a response of the wiki after SEC seconds (default: none)
+            --max-requests N         Send at most N requests to the wiki at the same time, fewer while it is
+                                     overloaded (default: 8)
+            --attr-timeout SEC       Keep the attributes of the files, the directory listings and the pages of a
+                                     mounted wiki for SEC seconds before asking the wiki again, 0 to always ask it
+                                     (default: 5)
             --ext EXT                Use this as a file extension when editing a file
 
         Authentication:
@@ -165,7 +182,7 @@ public record Command(
             @Override
             void run(Command cmd) throws Exception
             {
-                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page);
+                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page, Projection.PAGE);
                 Editing.editValue(cmd, doc.getContent(), EDIT_PREFIX_CONTENT, XWIKI_FILE_EXTENSION, newValue -> {
                     try {
                         doc.setContent(newValue);
@@ -182,7 +199,7 @@ public record Command(
             @Override
             void run(Command cmd) throws Exception
             {
-                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page);
+                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page, Projection.OBJECTS);
                 var objects = doc.getObjects(null, null, null);
                 String res = "title=" + doc.getTitle() + "\n\n";
                 for (var o : objects) {
@@ -206,7 +223,7 @@ public record Command(
             @Override
             void run(Command cmd) throws Exception
             {
-                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page);
+                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page, cmd.objectProjection());
                 var val = doc.getValue(cmd.objectClass, cmd.objectNumber, cmd.property);
                 if (val.isEmpty()) {
                     throw new MessageForUserDocException("This property does not exist");
@@ -238,7 +255,7 @@ public record Command(
             @Override
             void run(Command cmd) throws Exception
             {
-                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page);
+                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page, Projection.PAGE);
                 out.println(value(cmd, doc.getContent()));
             }
         },
@@ -246,7 +263,7 @@ public record Command(
             @Override
             void run(Command cmd) throws Exception
             {
-                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page);
+                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page, Projection.PAGE);
                 doc.setContent(cmd.content);
                 doc.save();
             }
@@ -255,7 +272,7 @@ public record Command(
             @Override
             void run(Command cmd) throws Exception
             {
-                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page);
+                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page, Projection.PAGE);
                 out.println(value(cmd, doc.getTitle()));
             }
         },
@@ -263,7 +280,7 @@ public record Command(
             @Override
             void run(Command cmd) throws Exception
             {
-                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page);
+                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page, Projection.PAGE);
                 doc.setTitle(cmd.title);
                 doc.save();
             }
@@ -272,7 +289,7 @@ public record Command(
             @Override
             void run(Command cmd) throws Exception
             {
-                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page);
+                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page, cmd.objectProjection());
                 out.println(value(cmd, doc.getValue(cmd.objectClass, cmd.objectNumber, cmd.property).orElse("empty")));
             }
         },
@@ -280,7 +297,7 @@ public record Command(
             @Override
             void run(Command cmd) throws Exception
             {
-                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page);
+                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page, cmd.objectProjection());
                 if (cmd.value == null) {
                     err.println("--set-property: please provide a value to set with -v VALUE");
                 }
@@ -292,7 +309,7 @@ public record Command(
             @Override
             void run(Command cmd) throws Exception
             {
-                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page);
+                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page, cmd.objectProjection());
                 for (var object : doc.getObjects(cmd.objectClass, cmd.objectNumber, cmd.property)) {
                     out.println(object.objectClass() + '/' + object.number());
                 }
@@ -302,7 +319,7 @@ public record Command(
             @Override
             void run(Command cmd) throws Exception
             {
-                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page);
+                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page, cmd.objectProjection());
                 for (var obj : doc.getObjects(cmd.objectClass, cmd.objectNumber, cmd.property)) {
                     for (var prop : obj.properties()) {
                         var val = prop.value();
@@ -350,7 +367,7 @@ public record Command(
             @Override
             void run(Command cmd) throws Exception
             {
-                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page);
+                var doc = new MultipleDoc(cmd, cmd.wiki, cmd.page, Projection.ATTACHMENTS);
                 for (var attachment : doc.getAttachments()) {
                     out.println(attachment.name() + " (size: " + attachment.size() + ")");
                 }
@@ -394,6 +411,10 @@ public record Command(
             + "\nSync Path:       " + syncPath
             + "\nSync data source:" + syncDataSource
             + "\nUsed Doc URL:  " + getDocURL()
+            + "\nConnect timeout:" + connectTimeout
+            + "\nRequest timeout:" + requestTimeout
+            + "\nMax requests:  " + maxRequests
+            + "\nAttr timeout:  " + attrTimeout
             + "\nDebug:         " + debug
             + "\n + printXML:   " + printXML);
     }
@@ -429,6 +450,15 @@ public record Command(
         return pos != -1 && value.indexOf('\n', pos) != -1;
     }
 
+    /**
+     * @return the parts of the page needed by an action on objects: when the object is fully specified, it is fetched
+     *     on its own instead of along with all the objects of the page.
+     */
+    private Projection objectProjection()
+    {
+        return Utils.present(objectClass) && Utils.present(objectNumber) ? Projection.PAGE : Projection.OBJECTS;
+    }
+
     private String getDocURL()
     {
         try {
@@ -0,0 +1,388 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decode a gzip or deflate encoded response body as it is received, before handing it to the actual body subscriber.
+ * <p>
+ * Each chunk received from the network is decoded to exactly one chunk given to the actual subscriber, so the demand
+ * of the actual subscriber is forwarded as is and the body never has to be fully buffered, encoded or decoded.
+ *
+ * @param <T> the type of the response body.
+ * @version $Id$
+ */
+final class DecodingBodySubscriber<T> implements HttpResponse.BodySubscriber<T>
+{
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final int GZIP_HEADER_SIZE = 10;
+
+    private static final int GZIP_TRAILER_SIZE = 8;
+
+    private static final int GZIP_ID1 = 0x1f;
+
+    private static final int GZIP_ID2 = 0x8b;
+
+    private static final int GZIP_DEFLATE = 8;
+
+    private static final int GZIP_FHCRC = 2;
+
+    private static final int GZIP_FEXTRA = 4;
+
+    private static final int GZIP_FNAME = 8;
+
+    private static final int GZIP_FCOMMENT = 16;
+
+    private static final int BYTE_MASK = 0xff;
+
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+
+    private enum Encoding
+    {
+        IDENTITY,
+        GZIP,
+        DEFLATE
+    }
+
+    private enum State
+    {
+        HEADER,
+        BODY,
+        TRAILER,
+        DONE
+    }
+
+    private final HttpResponse.BodySubscriber<T> downstream;
+
+    private final Encoding encoding;
+
+    private final CRC32 crc = new CRC32();
+
+    private Inflater inflater;
+
+    private byte[] buffer;
+
+    private Flow.Subscription subscription;
+
+    private State state = State.HEADER;
+
+    private byte[] pending = EMPTY;
+
+    private long received;
+
+    private long decoded;
+
+    private boolean ended;
+
+    private DecodingBodySubscriber(HttpResponse.BodySubscriber<T> downstream, Encoding encoding)
+    {
+        this.downstream = downstream;
+        this.encoding = encoding;
+    }
+
+    /**
+     * @param handler the actual body handler.
+     * @param <T> the type of the response body.
+     * @return a body handler decoding the response body according to its Content-Encoding header before giving it to
+     *     the actual handler.
+     */
+    static <T> HttpResponse.BodyHandler<T> decoding(HttpResponse.BodyHandler<T> handler)
+    {
+        return responseInfo -> {
+            var contentEncoding = responseInfo.headers().firstValue(CONTENT_ENCODING).orElse("")
+                .trim().toLowerCase(Locale.ROOT);
+            var encoding = switch (contentEncoding) {
+                case "gzip", "x-gzip" -> Encoding.GZIP;
+                case "deflate" -> Encoding.DEFLATE;
+                default -> Encoding.IDENTITY;
+            };
+            return new DecodingBodySubscriber<>(handler.apply(responseInfo), encoding);
+        };
+    }
+
+    @Override
+    public CompletionStage<T> getBody()
+    {
+        return downstream.getBody();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription)
+    {
+        this.subscription = subscription;
+        downstream.onSubscribe(subscription);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> items)
+    {
+        List<ByteBuffer> decodedItems;
+        try {
+            decodedItems = decode(items);
+        } catch (IOException e) {
+            subscription.cancel();
+            onError(e);
+            return;
+        }
+        downstream.onNext(decodedItems);
+    }
+
+    @Override
+    public void onError(Throwable throwable)
+    {
+        end();
+        downstream.onError(throwable);
+    }
+
+    @Override
+    public void onComplete()
+    {
+        end();
+        if (encoding != Encoding.IDENTITY && received > 0 && state != State.DONE) {
+            downstream.onError(new EOFException("Unexpected end of the " + encoding + " encoded response body"));
+        } else {
+            downstream.onComplete();
+        }
+    }
+
+    private List<ByteBuffer> decode(List<ByteBuffer> items) throws IOException
+    {
+        var out = new ArrayList<ByteBuffer>(items.size());
+        for (var item : items) {
+            var length = item.remaining();
+            received += length;
+            if (encoding == Encoding.IDENTITY) {
+                decoded += length;
+                out.add(item);
+            } else {
+                var input = new byte[length];
+                item.get(input);
+                feed(input, out);
+            }
+        }
+        return out;
+    }
+
+    private void feed(byte[] chunk, List<ByteBuffer> out) throws IOException
+    {
+        var input = chunk;
+        var offset = 0;
+        var length = chunk.length;
+        while (length > 0 && state != State.DONE) {
+            switch (state) {
+                case HEADER -> {
+                    input = append(pending, input, offset, length);
+                    offset = 0;
+                    length = input.length;
+                    var headerLength = readHeader(input);
+                    if (headerLength < 0) {
+                        pending = input;
+                        length = 0;
+                    } else {
+                        buffer = new byte[BUFFER_SIZE];
+                        pending = EMPTY;
+                        offset = headerLength;
+                        length -= headerLength;
+                        state = State.BODY;
+                    }
+                }
+                case BODY -> {
+                    inflater.setInput(input, offset, length);
+                    inflate(out);
+                    var remaining = inflater.getRemaining();
+                    offset += length - remaining;
+                    length = remaining;
+                    if (inflater.finished()) {
+                        state = encoding == Encoding.GZIP ? State.TRAILER : State.DONE;
+                    }
+                }
+                default -> {
+                    pending = append(pending, input, offset, length);
+                    length = 0;
+                    if (pending.length >= GZIP_TRAILER_SIZE) {
+                        checkGzipTrailer(pending);
+                        state = State.DONE;
+                    }
+                }
+            }
+        }
+    }
+
+    private void inflate(List<ByteBuffer> out) throws IOException
+    {
+        try {
+            while (!inflater.finished() && !inflater.needsInput()) {
+                var length = inflater.inflate(buffer);
+                if (length == 0) {
+                    if (inflater.needsDictionary()) {
+                        throw new ZipException("Unsupported preset dictionary in the deflate encoded response body");
+                    }
+                    break;
+                }
+                crc.update(buffer, 0, length);
+                decoded += length;
+                out.add(ByteBuffer.wrap(Arrays.copyOf(buffer, length)));
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        }
+    }
+
+    /**
+     * @return the length of the header at the start of the given bytes, -1 if more bytes are needed to know it.
+     */
+    private int readHeader(byte[] input) throws ZipException
+    {
+        if (encoding == Encoding.GZIP) {
+            var headerLength = getGzipHeaderLength(input);
+            if (headerLength >= 0) {
+                inflater = new Inflater(true);
+            }
+            return headerLength;
+        }
+
+        if (input.length < 2) {
+            return -1;
+        }
+
+        // The deflate content coding is supposed to be zlib-wrapped, but some servers send raw deflate data.
+        var cmf = input[0] & BYTE_MASK;
+        var flg = input[1] & BYTE_MASK;
+        var zlibWrapped = (cmf & 0x0f) == GZIP_DEFLATE && ((cmf << 8) | flg) % 31 == 0;
+        inflater = new Inflater(!zlibWrapped);
+        return 0;
+    }
+
+    private static int getGzipHeaderLength(byte[] header) throws ZipException
+    {
+        if (header.length < GZIP_HEADER_SIZE) {
+            return -1;
+        }
+
+        checkGzipMagic(header);
+
+        var flags = header[3] & BYTE_MASK;
+        var position = GZIP_HEADER_SIZE;
+        if ((flags & GZIP_FEXTRA) != 0) {
+            position = skipExtraField(header, position);
+        }
+
+        if ((flags & GZIP_FNAME) != 0) {
+            position = skipZeroTerminated(header, position);
+        }
+
+        if ((flags & GZIP_FCOMMENT) != 0) {
+            position = skipZeroTerminated(header, position);
+        }
+
+        if ((flags & GZIP_FHCRC) != 0 && position >= 0) {
+            position += 2;
+        }
+
+        return position < 0 || position > header.length ? -1 : position;
+    }
+
+    private static void checkGzipMagic(byte[] header) throws ZipException
+    {
+        var magic = ((header[0] & BYTE_MASK) << 8) | (header[1] & BYTE_MASK);
+        if (magic != ((GZIP_ID1 << 8) | GZIP_ID2) || header[2] != GZIP_DEFLATE) {
+            throw new ZipException("The gzip encoded response body is not in the gzip format");
+        }
+    }
+
+    private static int skipExtraField(byte[] header, int position)
+    {
+        if (header.length < position + 2) {
+            return -1;
+        }
+        return position + 2 + ((header[position] & BYTE_MASK) | ((header[position + 1] & BYTE_MASK) << 8));
+    }
+
+    private static int skipZeroTerminated(byte[] header, int position)
+    {
+        if (position < 0) {
+            return -1;
+        }
+
+        for (var i = position; i < header.length; i++) {
+            if (header[i] == 0) {
+                return i + 1;
+            }
+        }
+
+        return -1;
+    }
+
+    private void checkGzipTrailer(byte[] trailer) throws ZipException
+    {
+        if (readInt(trailer, 0) != crc.getValue() || readInt(trailer, 4) != (decoded & 0xffffffffL)) {
+            throw new ZipException("Corrupted gzip encoded response body");
+        }
+    }
+
+    private static long readInt(byte[] bytes, int offset)
+    {
+        long value = 0;
+        for (var i = 3; i >= 0; i--) {
+            value = (value << 8) | (bytes[offset + i] & BYTE_MASK);
+        }
+        return value;
+    }
+
+    private static byte[] append(byte[] start, byte[] input, int offset, int length)
+    {
+        if (start.length == 0 && offset == 0 && length == input.length) {
+            return input;
+        }
+        var result = Arrays.copyOf(start, start.length + length);
+        System.arraycopy(input, offset, result, start.length, length);
+        return result;
+    }
+
+    private void end()
+    {
+        if (ended) {
+            return;
+        }
+        ended = true;
+        if (inflater != null) {
+            inflater.end();
+        }
+        HTTPStatistics.addReceived(received, decoded);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cli;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Attributes of the files and directories of a mounted wiki, so the stream of getattr calls the kernel makes doesn't
+ * translate into as many requests to the wiki.
+ * <p>
+ * Entries expire after a fixed time, since the wiki can be changed by others. Changes made through the mount
+ * invalidate them right away.
+ *
+ * @version $Id$
+ */
+final class FSAttributeCache
+{
+    /**
+     * Time in seconds entries are kept when no other time is given.
+     */
+    static final int DEFAULT_TIMEOUT = 5;
+
+    private static final int MAX_ENTRIES = 100_000;
+
+    /**
+     * Attributes of a path.
+     *
+     * @param directory whether the path is a directory.
+     * @param size the size of the file, 0 for a directory.
+     * @param expiry the value of {@link System#nanoTime()} after which the attributes can't be trusted anymore.
+     */
+    record Attributes(boolean directory, long size, long expiry)
+    {
+    }
+
+    private final Map<String, Attributes> entries = new HashMap<>();
+
+    private final long timeout;
+
+    /**
+     * @param timeout the time in seconds entries are kept, 0 to disable the cache.
+     */
+    FSAttributeCache(int timeout)
+    {
+        this.timeout = TimeUnit.SECONDS.toNanos(timeout);
+    }
+
+    /**
+     * @param path a path in the mount.
+     * @return the attributes of the path, null if they aren't known or have expired.
+     */
+    synchronized Attributes get(String path)
+    {
+        Attributes attributes = entries.get(path);
+        if (attributes != null && attributes.expiry() - System.nanoTime() < 0) {
+            entries.remove(path);
+            return null;
+        }
+        return attributes;
+    }
+
+    /**
+     * @param path a path in the mount that was found to be a directory.
+     */
+    void putDirectory(String path)
+    {
+        put(path, true, 0);
+    }
+
+    /**
+     * @param path a path in the mount that was found to be a file.
+     * @param size the size of the file.
+     */
+    void putFile(String path, long size)
+    {
+        put(path, false, size);
+    }
+
+    /**
+     * Forget the attributes of the given path.
+     *
+     * @param path a path in the mount that was changed.
+     */
+    synchronized void invalidate(String path)
+    {
+        entries.remove(path);
+    }
+
+    private synchronized void put(String path, boolean directory, long size)
+    {
+        if (timeout <= 0) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (entries.size() >= MAX_ENTRIES) {
+            entries.values().removeIf(attributes -> attributes.expiry() - now < 0);
+            if (entries.size() >= MAX_ENTRIES) {
+                entries.clear();
+            }
+        }
+        entries.put(path, new Attributes(directory, size, now + timeout));
+    }
+}
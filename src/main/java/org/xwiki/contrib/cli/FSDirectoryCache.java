@@ -0,0 +1,131 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cli;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listings of the directories of a mounted wiki, so browsing the mount doesn't request the same lists from the wiki
+ * over and over.
+ * <p>
+ * Listings expire after a fixed time, since the wiki can be changed by others. The cache is bounded by the total
+ * number of entries of the listings it keeps and evicts the least recently used listings first.
+ *
+ * @version $Id$
+ */
+final class FSDirectoryCache
+{
+    private static final int MAX_ENTRIES = 100_000;
+
+    private static final char SLASH = '/';
+
+    private record Listing(String[] names, long expiry)
+    {
+    }
+
+    private final Map<String, Listing> listings = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final long timeout;
+
+    private int size;
+
+    /**
+     * @param timeout the time in seconds listings are kept, 0 to disable the cache.
+     */
+    FSDirectoryCache(int timeout)
+    {
+        this.timeout = TimeUnit.SECONDS.toNanos(timeout);
+    }
+
+    /**
+     * @param path the path of a directory in the mount.
+     * @return the names of the entries of the directory, null if they aren't known or have expired.
+     */
+    synchronized String[] get(String path)
+    {
+        Listing listing = listings.get(path);
+        if (listing == null) {
+            return null;
+        }
+
+        if (listing.expiry() - System.nanoTime() < 0) {
+            remove(path);
+            return null;
+        }
+        return listing.names();
+    }
+
+    /**
+     * @param path the path of a directory in the mount.
+     * @param names the names of the entries of the directory.
+     */
+    synchronized void put(String path, String[] names)
+    {
+        if (timeout <= 0 || names.length > MAX_ENTRIES) {
+            return;
+        }
+
+        remove(path);
+        listings.put(path, new Listing(names, System.nanoTime() + timeout));
+        size += names.length;
+
+        var iterator = listings.values().iterator();
+        while (size > MAX_ENTRIES && iterator.hasNext()) {
+            size -= iterator.next().names().length;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Forget the listings that a change to the given page may make stale: the ones of the page directory and of every
+     * directory below it, and the one of the directory listing the page, since the change may have created it.
+     *
+     * @param pagePath the path of the directory of the changed page.
+     */
+    synchronized void invalidatePage(String pagePath)
+    {
+        remove(pagePath.substring(0, pagePath.lastIndexOf(SLASH)));
+
+        var iterator = listings.entrySet().iterator();
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+            if (isInDirectory(entry.getKey(), pagePath)) {
+                size -= entry.getValue().names().length;
+                iterator.remove();
+            }
+        }
+    }
+
+    private void remove(String path)
+    {
+        Listing previous = listings.remove(path);
+        if (previous != null) {
+            size -= previous.names().length;
+        }
+    }
+
+    private static boolean isInDirectory(String path, String directory)
+    {
+        return path.startsWith(directory)
+            && (path.length() == directory.length() || path.charAt(directory.length()) == SLASH);
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cli;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jnr.ffi.Pointer;
+
+/**
+ * Files opened on a mounted wiki, each with its own buffer so writes are only sent to the wiki once the file is
+ * flushed, instead of saving the page for every chunk the kernel writes.
+ *
+ * @version $Id$
+ */
+final class FSFileHandles
+{
+    /**
+     * Save the content of a file.
+     */
+    @FunctionalInterface
+    interface Saver
+    {
+        /**
+         * @param content the content of the file.
+         * @return false if the content couldn't be saved.
+         */
+        boolean save(byte[] content);
+    }
+
+    /**
+     * A file opened on the mount.
+     */
+    static final class OpenFile
+    {
+        private final String path;
+
+        private byte[] data;
+
+        private int length;
+
+        private boolean dirty;
+
+        OpenFile(String path)
+        {
+            this.path = path;
+        }
+
+        /**
+         * @return the path of the file in the mount.
+         */
+        String getPath()
+        {
+            return path;
+        }
+
+        /**
+         * @return true if the content of the file is in the buffer.
+         */
+        synchronized boolean isLoaded()
+        {
+            return data != null;
+        }
+
+        /**
+         * @return true if the buffer has changes which were not saved yet.
+         */
+        synchronized boolean isDirty()
+        {
+            return dirty;
+        }
+
+        /**
+         * @return the size of the content in the buffer.
+         */
+        synchronized int getLength()
+        {
+            return length;
+        }
+
+        /**
+         * Fill the buffer with the current content of the file, unless it was already.
+         *
+         * @param content the current content of the file.
+         */
+        synchronized void load(byte[] content)
+        {
+            if (data == null) {
+                data = content;
+                length = content.length;
+            }
+        }
+
+        /**
+         * Write in the buffer, which must be loaded.
+         *
+         * @param buf the bytes to write.
+         * @param size the number of bytes to write.
+         * @param offset where to write in the file.
+         */
+        synchronized void write(Pointer buf, int size, int offset)
+        {
+            ensureCapacity(offset + size);
+            if (offset > length) {
+                Arrays.fill(data, length, offset, (byte) 0);
+            }
+            buf.get(0, data, offset, size);
+            length = Math.max(length, offset + size);
+            dirty = true;
+        }
+
+        /**
+         * Read from the buffer, which must be loaded.
+         *
+         * @param buf where to put the bytes read.
+         * @param size the maximum number of bytes to read.
+         * @param offset where to read in the file.
+         * @return the number of bytes read.
+         */
+        synchronized int read(Pointer buf, long size, long offset)
+        {
+            if (offset >= length) {
+                return 0;
+            }
+
+            int sizeToRead = (int) Math.min(size, length - offset);
+            buf.put(0, data, (int) offset, sizeToRead);
+            return sizeToRead;
+        }
+
+        /**
+         * Change the size of the content in the buffer, filling it with zeros if it grows.
+         *
+         * @param size the new size.
+         */
+        synchronized void truncate(int size)
+        {
+            if (data == null) {
+                data = new byte[size];
+            } else {
+                ensureCapacity(size);
+                if (size > length) {
+                    Arrays.fill(data, length, size, (byte) 0);
+                }
+            }
+            length = size;
+            dirty = true;
+        }
+
+        /**
+         * Save the changes in the buffer, if there are any. Writes to the file wait for the save to end.
+         *
+         * @param saver the way to save the content of the file.
+         * @return false if the content couldn't be saved.
+         */
+        synchronized boolean flush(Saver saver)
+        {
+            if (!dirty) {
+                return true;
+            }
+
+            if (saver.save(Arrays.copyOf(data, length))) {
+                dirty = false;
+                return true;
+            }
+            return false;
+        }
+
+        private void ensureCapacity(int capacity)
+        {
+            if (capacity > data.length) {
+                // Grow geometrically so writing a file sequentially stays linear.
+                data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+            }
+        }
+    }
+
+    private final Map<Long, OpenFile> files = new ConcurrentHashMap<>();
+
+    private final AtomicLong lastHandle = new AtomicLong();
+
+    /**
+     * @param file a newly opened file.
+     * @return the handle of the file, to give to the kernel.
+     */
+    long add(OpenFile file)
+    {
+        long handle = lastHandle.incrementAndGet();
+        files.put(handle, file);
+        return handle;
+    }
+
+    /**
+     * @param handle the handle of an open file.
+     * @return the file, null if the handle is unknown.
+     */
+    OpenFile get(long handle)
+    {
+        return files.get(handle);
+    }
+
+    /**
+     * @param handle the handle of a file being closed.
+     * @return the file, null if the handle is unknown.
+     */
+    OpenFile remove(long handle)
+    {
+        return files.remove(handle);
+    }
+
+    /**
+     * @param path a path in the mount.
+     * @return a file opened at this path whose buffer holds unsaved changes, null if there is none.
+     */
+    OpenFile getDirty(String path)
+    {
+        for (OpenFile file : files.values()) {
+            if (file.getPath().equals(path) && file.isDirty()) {
+                return file;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cli;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.xwiki.contrib.cli.document.MultipleDoc;
+
+/**
+ * Pages of a mounted wiki along with the values read from them, shared by all the operations on the mount so the
+ * kernel reading a file in many small chunks doesn't fetch and parse the page again for each of them.
+ * <p>
+ * Pages expire after a fixed time, since the wiki can be changed by others. Fetching them again then revalidates the
+ * response cached by the HTTP session, so an unchanged page isn't downloaded again. The cache is bounded by the number
+ * of pages and the size of the values it keeps, and evicts the least recently used pages first. Operations on the
+ * same page are serialized, except the ones which only send a request of their own once the page is loaded.
+ *
+ * @version $Id$
+ */
+final class FSPageCache
+{
+    private static final int MAX_PAGES = 64;
+
+    private static final long MAX_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Load a page.
+     */
+    @FunctionalInterface
+    interface DocumentLoader
+    {
+        /**
+         * @return the loaded page.
+         * @throws DocException if the page can't be loaded.
+         * @throws IOException if the page can't be loaded.
+         */
+        MultipleDoc load() throws DocException, IOException;
+    }
+
+    /**
+     * Use a page.
+     *
+     * @param <T> the type of the result.
+     */
+    @FunctionalInterface
+    interface DocumentFunction<T>
+    {
+        /**
+         * @param document the page.
+         * @return the result.
+         * @throws DocException if the page can't be used.
+         * @throws IOException if the page can't be used.
+         */
+        T apply(MultipleDoc document) throws DocException, IOException;
+    }
+
+    private final class Page
+    {
+        private final String path;
+
+        private final long expiry;
+
+        private final Map<String, byte[]> values = new HashMap<>();
+
+        private MultipleDoc document;
+
+        private long size;
+
+        Page(String path, long expiry)
+        {
+            this.path = path;
+            this.expiry = expiry;
+        }
+
+        MultipleDoc getDocument(DocumentLoader loader) throws DocException, IOException
+        {
+            if (document == null) {
+                document = loader.load();
+            }
+            return document;
+        }
+    }
+
+    private final Map<String, Page> pages = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final long timeout;
+
+    private long size;
+
+    /**
+     * @param timeout the time in seconds pages are kept, 0 to disable the cache.
+     */
+    FSPageCache(int timeout)
+    {
+        this.timeout = TimeUnit.SECONDS.toNanos(timeout);
+    }
+
+    /**
+     * Use a page, loading it if needed. Unlike the other operations, the function is not serialized with the other
+     * operations on the page, so a slow request doesn't block them: it must only do what is safe concurrently, like
+     * requesting a range of an attachment, which doesn't use the parsed page.
+     *
+     * @param pagePath the path of the directory of the page in the mount.
+     * @param loader the way to load the page.
+     * @param function what to do with the page.
+     * @param <T> the type of the result.
+     * @return the result of the function.
+     * @throws DocException if the page can't be loaded or used.
+     * @throws IOException if the page can't be loaded or used.
+     */
+    <T> T readConcurrently(String pagePath, DocumentLoader loader, DocumentFunction<T> function)
+        throws DocException, IOException
+    {
+        Page page = getPage(pagePath);
+        MultipleDoc document;
+        synchronized (page) {
+            document = page.getDocument(loader);
+        }
+        return function.apply(document);
+    }
+
+    /**
+     * Get a value of a page, reading it from the page if it wasn't read already.
+     *
+     * @param pagePath the path of the directory of the page in the mount.
+     * @param path the path of the file of the value in the mount.
+     * @param loader the way to load the page.
+     * @param reader the way to read the value from the page.
+     * @return the value.
+     * @throws DocException if the page can't be loaded or the value can't be read.
+     * @throws IOException if the page can't be loaded or the value can't be read.
+     */
+    byte[] getValue(String pagePath, String path, DocumentLoader loader, DocumentFunction<byte[]> reader)
+        throws DocException, IOException
+    {
+        Page page = getPage(pagePath);
+        synchronized (page) {
+            byte[] value = page.values.get(path);
+            if (value == null) {
+                value = reader.apply(page.getDocument(loader));
+                if (value == null) {
+                    return null;
+                }
+                page.values.put(path, value);
+                added(page, value.length);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Change a page, then forget it so it is loaded again with the changes the next time.
+     *
+     * @param pagePath the path of the directory of the page in the mount.
+     * @param loader the way to load the page.
+     * @param writer what to change in the page, including saving it.
+     * @param <T> the type of the result.
+     * @return the result of the writer.
+     * @throws DocException if the page can't be loaded or changed.
+     * @throws IOException if the page can't be loaded or changed.
+     */
+    <T> T write(String pagePath, DocumentLoader loader, DocumentFunction<T> writer) throws DocException, IOException
+    {
+        Page page = getPage(pagePath);
+        synchronized (page) {
+            try {
+                return writer.apply(page.getDocument(loader));
+            } finally {
+                invalidate(page);
+            }
+        }
+    }
+
+    private synchronized Page getPage(String pagePath)
+    {
+        long now = System.nanoTime();
+        Page page = pages.get(pagePath);
+        if (page != null && page.expiry - now >= 0) {
+            return page;
+        }
+
+        page = new Page(pagePath, now + timeout);
+        if (timeout > 0) {
+            remove(pages.put(pagePath, page));
+            evict();
+        }
+        return page;
+    }
+
+    private synchronized void added(Page page, long length)
+    {
+        // The page may have been evicted or invalidated since it was got.
+        if (pages.get(page.path) == page) {
+            page.size += length;
+            size += length;
+            evict();
+        }
+    }
+
+    private synchronized void invalidate(Page page)
+    {
+        if (pages.get(page.path) == page) {
+            remove(pages.remove(page.path));
+        }
+    }
+
+    private void evict()
+    {
+        var iterator = pages.values().iterator();
+        while ((pages.size() > MAX_PAGES || size > MAX_SIZE) && iterator.hasNext()) {
+            size -= iterator.next().size;
+            iterator.remove();
+        }
+    }
+
+    private void remove(Page page)
+    {
+        if (page != null) {
+            size -= page.size;
+        }
+    }
+}
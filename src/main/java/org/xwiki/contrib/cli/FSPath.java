@@ -0,0 +1,462 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cli;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A path of a mounted wiki, split once into its typed segments: wiki, chain of spaces, page, and what it designates
+ * in the page.
+ * <p>
+ * The tree of the mount is described by tables giving, for each type of node, the types of its children: the ones
+ * with a fixed name, the one any other name gives, and the symbolic link a name followed by an extension gives.
+ * Parsing walks these tables segment by segment, so its cost only depends on the length of the path.
+ *
+ * @version $Id$
+ */
+final class FSPath
+{
+    /**
+     * What a node of the mount is to the file system.
+     */
+    enum Kind
+    {
+        /**
+         * A directory.
+         */
+        DIRECTORY,
+
+        /**
+         * A regular file.
+         */
+        FILE,
+
+        /**
+         * A symbolic link.
+         */
+        LINK,
+
+        /**
+         * Nothing, the path doesn't exist.
+         */
+        NONE
+    }
+
+    /**
+     * The types of the nodes of the mount.
+     */
+    enum Type
+    {
+        /**
+         * {@code /}.
+         */
+        ROOT(Kind.DIRECTORY),
+
+        /**
+         * {@code /wikis}.
+         */
+        WIKIS(Kind.DIRECTORY),
+
+        /**
+         * {@code /wikis/WIKI}.
+         */
+        WIKI(Kind.DIRECTORY),
+
+        /**
+         * {@code /wikis/WIKI/spaces} or {@code SPACE/spaces}.
+         */
+        SPACES(Kind.DIRECTORY),
+
+        /**
+         * {@code SPACES/SPACE}.
+         */
+        SPACE(Kind.DIRECTORY),
+
+        /**
+         * {@code /wikis/WIKI/classes}.
+         */
+        CLASSES(Kind.DIRECTORY),
+
+        /**
+         * {@code /wikis/WIKI/classes/CLASS}, a link to the class directory of the page defining the class.
+         */
+        CLASS_LINK(Kind.LINK),
+
+        /**
+         * {@code SPACE/pages}.
+         */
+        PAGES(Kind.DIRECTORY),
+
+        /**
+         * {@code SPACE/pages/PAGE}.
+         */
+        PAGE(Kind.DIRECTORY),
+
+        /**
+         * {@code PAGE/content}.
+         */
+        CONTENT(Kind.FILE),
+
+        /**
+         * {@code PAGE/content.EXT}, a link to the content.
+         */
+        CONTENT_LINK(Kind.LINK),
+
+        /**
+         * {@code PAGE/title}.
+         */
+        TITLE(Kind.FILE),
+
+        /**
+         * {@code PAGE/attachments}.
+         */
+        ATTACHMENTS(Kind.DIRECTORY),
+
+        /**
+         * {@code PAGE/attachments/ATTACHMENT}.
+         */
+        ATTACHMENT(Kind.FILE),
+
+        /**
+         * {@code PAGE/class}.
+         */
+        CLASS(Kind.DIRECTORY),
+
+        /**
+         * {@code PAGE/class/properties}.
+         */
+        CLASS_PROPERTIES(Kind.DIRECTORY),
+
+        /**
+         * {@code PAGE/class/properties/PROPERTY}.
+         */
+        CLASS_PROPERTY(Kind.DIRECTORY),
+
+        /**
+         * {@code PAGE/class/properties/PROPERTY/ATTRIBUTE}.
+         */
+        CLASS_ATTRIBUTE(Kind.FILE),
+
+        /**
+         * {@code PAGE/objects}.
+         */
+        OBJECTS(Kind.DIRECTORY),
+
+        /**
+         * {@code PAGE/objects/CLASS}.
+         */
+        OBJECT_CLASS(Kind.DIRECTORY),
+
+        /**
+         * {@code PAGE/objects/CLASS/NUMBER}.
+         */
+        OBJECT(Kind.DIRECTORY),
+
+        /**
+         * {@code PAGE/objects/CLASS/NUMBER/properties}.
+         */
+        OBJECT_PROPERTIES(Kind.DIRECTORY),
+
+        /**
+         * {@code PAGE/objects/CLASS/NUMBER/properties/PROPERTY}.
+         */
+        OBJECT_PROPERTY(Kind.FILE),
+
+        /**
+         * A property or class attribute followed by an extension, a link to the property or attribute.
+         */
+        PROPERTY_LINK(Kind.LINK),
+
+        /**
+         * Anything else.
+         */
+        UNKNOWN(Kind.NONE);
+
+        private final Kind kind;
+
+        Type(Kind kind)
+        {
+            this.kind = kind;
+        }
+
+        /**
+         * @return what the node is to the file system.
+         */
+        Kind getKind()
+        {
+            return kind;
+        }
+    }
+
+    private static final String SPACES = "spaces";
+
+    private static final String PROPERTIES = "properties";
+
+    private static final char SEPARATOR = '/';
+
+    private static final Map<Type, Map<String, Type>> NAMED_CHILDREN = new EnumMap<>(Type.class);
+
+    private static final Map<Type, Type> OTHER_CHILDREN = new EnumMap<>(Type.class);
+
+    private static final Map<Type, Type> LINKS = new EnumMap<>(Type.class);
+
+    static {
+        addNamedChild(Type.ROOT, "wikis", Type.WIKIS);
+        OTHER_CHILDREN.put(Type.WIKIS, Type.WIKI);
+        addNamedChild(Type.WIKI, SPACES, Type.SPACES);
+        addNamedChild(Type.WIKI, "classes", Type.CLASSES);
+        OTHER_CHILDREN.put(Type.CLASSES, Type.CLASS_LINK);
+        OTHER_CHILDREN.put(Type.SPACES, Type.SPACE);
+        addNamedChild(Type.SPACE, SPACES, Type.SPACES);
+        addNamedChild(Type.SPACE, "pages", Type.PAGES);
+        OTHER_CHILDREN.put(Type.PAGES, Type.PAGE);
+        addNamedChild(Type.PAGE, "content", Type.CONTENT);
+        addNamedChild(Type.PAGE, "title", Type.TITLE);
+        addNamedChild(Type.PAGE, "attachments", Type.ATTACHMENTS);
+        addNamedChild(Type.PAGE, "class", Type.CLASS);
+        addNamedChild(Type.PAGE, "objects", Type.OBJECTS);
+        OTHER_CHILDREN.put(Type.ATTACHMENTS, Type.ATTACHMENT);
+        addNamedChild(Type.CLASS, PROPERTIES, Type.CLASS_PROPERTIES);
+        OTHER_CHILDREN.put(Type.CLASS_PROPERTIES, Type.CLASS_PROPERTY);
+        OTHER_CHILDREN.put(Type.CLASS_PROPERTY, Type.CLASS_ATTRIBUTE);
+        OTHER_CHILDREN.put(Type.OBJECTS, Type.OBJECT_CLASS);
+        OTHER_CHILDREN.put(Type.OBJECT_CLASS, Type.OBJECT);
+        addNamedChild(Type.OBJECT, PROPERTIES, Type.OBJECT_PROPERTIES);
+        OTHER_CHILDREN.put(Type.OBJECT_PROPERTIES, Type.OBJECT_PROPERTY);
+
+        LINKS.put(Type.CONTENT, Type.CONTENT_LINK);
+        LINKS.put(Type.CLASS_PROPERTY, Type.PROPERTY_LINK);
+        LINKS.put(Type.CLASS_ATTRIBUTE, Type.PROPERTY_LINK);
+        LINKS.put(Type.OBJECT_PROPERTY, Type.PROPERTY_LINK);
+    }
+
+    private final String path;
+
+    private Type type = Type.ROOT;
+
+    private String wiki;
+
+    private StringBuilder spaceReference;
+
+    private String page;
+
+    private int pageEnd;
+
+    private String objectClass;
+
+    private String objectNumber;
+
+    private String name;
+
+    private FSPath(String path)
+    {
+        this.path = path;
+    }
+
+    /**
+     * @param path a path of the mount, starting with a slash.
+     * @return the parsed path.
+     */
+    static FSPath parse(String path)
+    {
+        FSPath fsPath = new FSPath(path);
+        int start = path.indexOf(SEPARATOR) + 1;
+        if (start == 0) {
+            fsPath.type = Type.UNKNOWN;
+        }
+        while (start > 0 && start < path.length() && fsPath.type != Type.UNKNOWN) {
+            int end = path.indexOf(SEPARATOR, start);
+            if (end == -1) {
+                end = path.length();
+            }
+            fsPath.addSegment(path.substring(start, end), end);
+            start = end + 1;
+        }
+        return fsPath;
+    }
+
+    private static void addNamedChild(Type parent, String childName, Type child)
+    {
+        NAMED_CHILDREN.computeIfAbsent(parent, p -> new HashMap<>()).put(childName, child);
+    }
+
+    private static Type getChild(Type parent, String childName)
+    {
+        Map<String, Type> namedChildren = NAMED_CHILDREN.get(parent);
+        Type child = namedChildren == null ? null : namedChildren.get(childName);
+        return child == null ? OTHER_CHILDREN.getOrDefault(parent, Type.UNKNOWN) : child;
+    }
+
+    private void addSegment(String segment, int end)
+    {
+        if (segment.isEmpty()) {
+            type = Type.UNKNOWN;
+            return;
+        }
+
+        // A name followed by an extension is a link if the name alone designates something links are made to.
+        int extension = segment.lastIndexOf('.');
+        if (extension > 0 && extension < segment.length() - 1) {
+            String linked = segment.substring(0, extension);
+            Type link = LINKS.get(getChild(type, linked));
+            if (link != null) {
+                type = link;
+                name = linked;
+                return;
+            }
+        }
+
+        type = getChild(type, segment);
+        switch (type) {
+            case WIKI -> {
+                wiki = segment;
+            }
+            case SPACE -> addSpace(segment);
+            case PAGE -> {
+                page = segment;
+                pageEnd = end;
+            }
+            case OBJECT_CLASS -> {
+                objectClass = segment;
+            }
+            case OBJECT -> {
+                objectNumber = segment;
+            }
+            default -> {
+                name = segment;
+            }
+        }
+    }
+
+    private void addSpace(String space)
+    {
+        if (spaceReference == null) {
+            spaceReference = new StringBuilder();
+        } else {
+            spaceReference.append('.');
+        }
+        appendEscaped(spaceReference, space);
+    }
+
+    private static void appendEscaped(StringBuilder builder, String name)
+    {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '.') {
+                builder.append('\\');
+            }
+            builder.append(c);
+        }
+    }
+
+    /**
+     * @return the path as given.
+     */
+    String getPath()
+    {
+        return path;
+    }
+
+    /**
+     * @return the type of node the path designates.
+     */
+    Type getType()
+    {
+        return type;
+    }
+
+    /**
+     * @return the path of the directory containing the node.
+     */
+    String getParentPath()
+    {
+        return path.substring(0, path.lastIndexOf(SEPARATOR));
+    }
+
+    /**
+     * @return the wiki of the path, null if it doesn't go as far as a wiki.
+     */
+    String getWiki()
+    {
+        return wiki;
+    }
+
+    /**
+     * @return the reference of the last space of the path, with its parent spaces, empty if it doesn't go as far as a
+     *     space.
+     */
+    String getSpaceReference()
+    {
+        return spaceReference == null ? "" : spaceReference.toString();
+    }
+
+    /**
+     * @return true if the path is a page or something in a page.
+     */
+    boolean isInPage()
+    {
+        return page != null;
+    }
+
+    /**
+     * @return the reference of the page of the path, relative to its wiki.
+     */
+    String getPageReference()
+    {
+        StringBuilder reference = new StringBuilder(spaceReference).append('.');
+        appendEscaped(reference, page);
+        return reference.toString();
+    }
+
+    /**
+     * @return the path of the directory of the page of the path.
+     */
+    String getPagePath()
+    {
+        return path.substring(0, pageEnd);
+    }
+
+    /**
+     * @return the class of the object of the path.
+     */
+    String getObjectClass()
+    {
+        return objectClass;
+    }
+
+    /**
+     * @return the number of the object of the path.
+     */
+    String getObjectNumber()
+    {
+        return objectNumber;
+    }
+
+    /**
+     * @return the name of the last segment of the path, without the extension for links: the class, attachment,
+     *     property or attribute name.
+     */
+    String getName()
+    {
+        return name;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli;
+
+import java.net.URI;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Bodies of GET responses along with their validators, so requesting them again only costs a "304 Not Modified"
+ * response if they didn't change.
+ * <p>
+ * Only responses coming with an ETag or a Last-Modified header can be revalidated, so only those are kept. The cache
+ * is bounded in size and evicts the least recently used entries first.
+ * <p>
+ * Each invalidation starts a new generation. A response is only kept if no invalidation concerning it happened since
+ * its request was sent, so a GET answered while a modification was in progress can't bring back a stale body.
+ *
+ * @version $Id$
+ */
+final class HTTPResponseCache
+{
+    /**
+     * Maximum size of a response body to keep.
+     */
+    static final int MAX_ENTRY_SIZE = 4 * 1024 * 1024;
+
+    private static final long MAX_SIZE = 32L * 1024 * 1024;
+
+    private static final String ETAG = "ETag";
+
+    private static final String LAST_MODIFIED = "Last-Modified";
+
+    /**
+     * Maximum number of invalidations remembered. Responses to requests sent before the oldest one are not kept.
+     */
+    private static final int MAX_INVALIDATIONS = 1024;
+
+    private final Map<String, HttpResponse<byte[]>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final ArrayDeque<Invalidation> invalidations = new ArrayDeque<>();
+
+    private long size;
+
+    private long generation;
+
+    private record Invalidation(String uri, long generation)
+    {
+    }
+
+    /**
+     * @return the current generation, to give to {@link #put(HttpResponse, long)} once the response of a request sent
+     *     now is received.
+     */
+    synchronized long getGeneration()
+    {
+        return generation;
+    }
+
+    /**
+     * Add the headers needed to revalidate the cached response of the given request, if any.
+     *
+     * @param uri the URI to get.
+     * @param builder the GET request to complete.
+     * @return the cached response the request will revalidate, null if there is none.
+     */
+    synchronized HttpResponse<byte[]> addValidators(URI uri, HttpRequest.Builder builder)
+    {
+        var cached = entries.get(uri.toString());
+        if (cached != null) {
+            cached.headers().firstValue(ETAG).ifPresent(etag -> builder.header("If-None-Match", etag));
+            cached.headers().firstValue(LAST_MODIFIED)
+                .ifPresent(lastModified -> builder.header("If-Modified-Since", lastModified));
+        }
+        return cached;
+    }
+
+    /**
+     * Keep the given response if it can be revalidated later.
+     *
+     * @param response a successful response to a GET request, with its body decoded.
+     * @param requestGeneration the generation when the request was sent, see {@link #getGeneration()}.
+     */
+    synchronized void put(HttpResponse<byte[]> response, long requestGeneration)
+    {
+        var key = response.request().uri().toString();
+        var previous = entries.remove(key);
+        if (previous != null) {
+            size -= previous.body().length;
+        }
+
+        if (!isCacheable(response) || isInvalidatedSince(key, requestGeneration)) {
+            return;
+        }
+
+        // The body is kept decoded, so it no longer has the encoding and the length the server sent.
+        var headers = HttpHeaders.of(response.headers().map(),
+            (name, value) -> !"Content-Encoding".equalsIgnoreCase(name) && !"Content-Length".equalsIgnoreCase(name));
+        entries.put(key, new SimpleHttpResponse<>(response.statusCode(), response.request(), headers, response.body(),
+            response.uri(), response.version()));
+        size += response.body().length;
+
+        var iterator = entries.values().iterator();
+        while (size > MAX_SIZE && iterator.hasNext()) {
+            size -= iterator.next().body().length;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Forget the responses that a modification of the given URI may make stale: the one of the URI itself, of the
+     * resources it is part of, and of the resources that are part of it, whatever their query string.
+     *
+     * @param uri the URI of the modified resource.
+     */
+    synchronized void invalidate(URI uri)
+    {
+        var modified = withoutQuery(uri.toString());
+        var iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+            if (isRelated(modified, withoutQuery(entry.getKey()))) {
+                size -= entry.getValue().body().length;
+                iterator.remove();
+            }
+        }
+
+        generation++;
+        invalidations.add(new Invalidation(modified, generation));
+        if (invalidations.size() > MAX_INVALIDATIONS) {
+            invalidations.poll();
+        }
+    }
+
+    private boolean isInvalidatedSince(String key, long requestGeneration)
+    {
+        // The invalidations which happened since are not all remembered anymore.
+        if (requestGeneration < generation - invalidations.size()) {
+            return true;
+        }
+
+        var uri = withoutQuery(key);
+        var iterator = invalidations.descendingIterator();
+        while (iterator.hasNext()) {
+            var invalidation = iterator.next();
+            if (invalidation.generation() <= requestGeneration) {
+                break;
+            }
+            if (isRelated(invalidation.uri(), uri)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if one of the given URIs is part of the other one.
+     */
+    private static boolean isRelated(String uri, String otherURI)
+    {
+        return uri.startsWith(otherURI) || otherURI.startsWith(uri);
+    }
+
+    private static boolean isCacheable(HttpResponse<byte[]> response)
+    {
+        var headers = response.headers();
+        return response.body().length <= MAX_ENTRY_SIZE
+            && (headers.firstValue(ETAG).isPresent() || headers.firstValue(LAST_MODIFIED).isPresent())
+            && !headers.firstValue("Cache-Control").orElse("").toLowerCase(Locale.ROOT).contains("no-store");
+    }
+
+    private static String withoutQuery(String uri)
+    {
+        var queryStart = uri.indexOf('?');
+        return queryStart == -1 ? uri : uri.substring(0, queryStart);
+    }
+}
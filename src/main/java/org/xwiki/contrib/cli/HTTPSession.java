@@ -0,0 +1,469 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.CookieManager;
+import java.net.CookiePolicy;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static java.lang.System.err;
+
+/**
+ * A long-lived HTTP session to a given wiki.
+ * <p>
+ * The underlying client keeps its connections alive and negotiates HTTP/2 when the server supports it, so successive
+ * requests to the same wiki don't pay a new TCP and TLS handshake each time. Sessions are shared by every command
+ * targeting the same wiki URL with the same credentials and custom headers.
+ * <p>
+ * Responses are requested gzip or deflate encoded and decoded on the fly, see {@link DecodingBodySubscriber}. GET
+ * responses are revalidated rather than downloaded again when possible, see {@link HTTPResponseCache}.
+ * <p>
+ * The credentials are only sent with GET requests until the server gives a session cookie, and again if the session
+ * expires. XWiki answers as guest rather than with "401 Unauthorized" when a session expires, so modifications always
+ * send the credentials: they must not be done as guest. A GET request sent without them is sent again with them when
+ * the server denies it, or when it starts a new session, since the response was then computed for the guest user.
+ * <p>
+ * GET requests are sent again, after a jittered exponential backoff, when the server is overloaded or too slow to
+ * answer. Together with the adaptive limit of {@link RequestScheduler}, this lets bulk operations slow down instead of
+ * failing. Each retry is logged in debug mode.
+ *
+ * @version $Id$
+ */
+final class HTTPSession
+{
+    /**
+     * Maximum number of idle connections kept alive by the client. The JDK reads this property once, when the first
+     * client is created, so it has to be set before that.
+     */
+    private static final String PROPERTY_CONNECTION_POOL_SIZE = "jdk.httpclient.connectionPoolSize";
+
+    private static final String PROPERTY_KEEPALIVE_TIMEOUT = "jdk.httpclient.keepalive.timeout";
+
+    private static final String DEFAULT_CONNECTION_POOL_SIZE = "16";
+
+    private static final String DEFAULT_KEEPALIVE_TIMEOUT = "120";
+
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+    private static final String AUTHORIZATION = "Authorization";
+
+    private static final String GET = "GET";
+
+    /**
+     * The start of the header the servlet container sends when it starts a new session, because the request had no
+     * session cookie or an expired one.
+     */
+    private static final String NEW_SESSION_COOKIE = "JSESSIONID=";
+
+    private static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final int MAX_ATTEMPTS = 4;
+
+    private static final Map<String, HTTPSession> SESSIONS = new ConcurrentHashMap<>();
+
+    private final Command cmd;
+
+    private final HttpClient client;
+
+    private final Duration requestTimeout;
+
+    private final CookieManager cookieManager = new CookieManager(null, CookiePolicy.ACCEPT_ORIGINAL_SERVER);
+
+    private final HTTPResponseCache cache = new HTTPResponseCache();
+
+    /**
+     * The GET requests in flight, which concurrent requests for the same resource can join rather than sending their
+     * own. Their future response is null if it can't be shared.
+     */
+    private final Map<URI, CompletableFuture<HttpResponse<byte[]>>> flights = new ConcurrentHashMap<>();
+
+    private HTTPSession(Command cmd)
+    {
+        this.cmd = cmd;
+
+        this.client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .cookieHandler(cookieManager)
+            .connectTimeout(cmd.connectTimeout() > 0
+                ? Duration.ofSeconds(cmd.connectTimeout())
+                : DEFAULT_CONNECT_TIMEOUT)
+            .build();
+
+        this.requestTimeout = cmd.requestTimeout() > 0 ? Duration.ofSeconds(cmd.requestTimeout()) : null;
+
+        if (cmd.maxRequests() > 0) {
+            RequestScheduler.get().setMaxInFlight(cmd.maxRequests());
+        }
+    }
+
+    /**
+     * @param cmd the command to get the session of.
+     * @return the session to use to reach the wiki of the given command.
+     */
+    static HTTPSession get(Command cmd)
+    {
+        return SESSIONS.computeIfAbsent(getSessionKey(cmd), key -> {
+            configureConnectionPool();
+            return new HTTPSession(cmd);
+        });
+    }
+
+    /**
+     * Send a request in this session and wait for its response.
+     *
+     * @param builder the request to send, without the authentication and custom headers.
+     * @param bodyHandler the handler of the response body.
+     * @param <T> the type of the response body.
+     * @return the HTTP response.
+     * @throws DocException if the request could not be sent.
+     */
+    <T> HttpResponse<T> send(HttpRequest.Builder builder, HttpResponse.BodyHandler<T> bodyHandler)
+        throws DocException
+    {
+        return await(sendAsync(builder, bodyHandler));
+    }
+
+    /**
+     * Send a request in this session, as soon as the number of requests in flight allows it.
+     *
+     * @param builder the request to send, without the authentication and custom headers.
+     * @param bodyHandler the handler of the response body.
+     * @param <T> the type of the response body.
+     * @return the future HTTP response.
+     */
+    <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest.Builder builder,
+        HttpResponse.BodyHandler<T> bodyHandler)
+    {
+        var request = buildRequest(builder.copy(), false);
+        var decodingBodyHandler = DecodingBodySubscriber.decoding(bodyHandler);
+        var response = send(request, decodingBodyHandler);
+
+        if (!hasCredentials() || request.headers().firstValue(AUTHORIZATION).isPresent()) {
+            return response;
+        }
+
+        return response.thenCompose(r -> {
+            if (!isSessionExpired(r)) {
+                return CompletableFuture.completedFuture(r);
+            }
+
+            // The response was computed for the guest user, log in again.
+            if (r.body() instanceof Closeable body) {
+                close(body);
+            }
+            cookieManager.getCookieStore().removeAll();
+            return send(buildRequest(builder, true), decodingBodyHandler);
+        });
+    }
+
+    /**
+     * Get a resource in this session, revalidating the cached response if there is one. Concurrent requests for the
+     * same resource share the same response.
+     *
+     * @param uri the URI of the resource.
+     * @return the future HTTP response.
+     */
+    CompletableFuture<HttpResponse<byte[]>> getAsync(URI uri)
+    {
+        var flight = new CompletableFuture<HttpResponse<byte[]>>();
+        var leadingFlight = flights.putIfAbsent(uri, flight);
+        if (leadingFlight != null) {
+            HTTPStatistics.addCoalesced();
+            return leadingFlight.thenCompose(response -> response == null
+                ? getAsync(uri)
+                : CompletableFuture.completedFuture(response));
+        }
+
+        var builder = HttpRequest.newBuilder().uri(uri).GET();
+        var cached = cache.addValidators(uri, builder);
+        var generation = cache.getGeneration();
+        return sendFlight(builder, HttpResponse.BodyHandlers.ofByteArray()).thenApply(response -> {
+            if (cached != null && response.statusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                HTTPStatistics.addRevalidated();
+                return cached;
+            }
+            if (response.statusCode() == HttpURLConnection.HTTP_OK) {
+                cache.put(response, generation);
+            }
+            return response;
+        }).whenComplete((response, error) -> land(uri, flight, response));
+    }
+
+    /**
+     * Get a resource in this session without buffering its body, revalidating the cached response if there is one.
+     * Concurrent requests for the same resource share the same response if its body is read to the end, and send their
+     * own request if it is closed before, so the body is to be read or closed promptly.
+     *
+     * @param uri the URI of the resource.
+     * @return the future HTTP response. Its body is to be closed once read.
+     */
+    CompletableFuture<HttpResponse<InputStream>> getStreamAsync(URI uri)
+    {
+        var flight = new CompletableFuture<HttpResponse<byte[]>>();
+        var leadingFlight = flights.putIfAbsent(uri, flight);
+        if (leadingFlight != null) {
+            HTTPStatistics.addCoalesced();
+            return leadingFlight.thenCompose(response -> {
+                if (response == null) {
+                    return getStreamAsync(uri);
+                }
+                HttpResponse<InputStream> sharedResponse =
+                    SimpleHttpResponse.withBody(response, new ByteArrayInputStream(response.body()));
+                return CompletableFuture.completedFuture(sharedResponse);
+            });
+        }
+
+        var builder = HttpRequest.newBuilder().uri(uri).GET();
+        var cached = cache.addValidators(uri, builder);
+        var generation = cache.getGeneration();
+        return sendFlight(builder, HttpResponse.BodyHandlers.ofInputStream()).thenApply(response -> {
+            if (cached != null && response.statusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                HTTPStatistics.addRevalidated();
+                close(response.body());
+                land(uri, flight, cached);
+                HttpResponse<InputStream> cachedResponse =
+                    SimpleHttpResponse.withBody(cached, new ByteArrayInputStream(cached.body()));
+                return cachedResponse;
+            }
+
+            // The body is shared with the concurrent requests once fully read, if it is small enough. If it is closed
+            // before, they send their own request rather than waiting for the rest of the body to be drained.
+            HttpResponse<InputStream> recordingResponse = SimpleHttpResponse.withBody(response,
+                new RecordingInputStream(response.body(), HTTPResponseCache.MAX_ENTRY_SIZE, body -> {
+                    var recordedResponse = body == null ? null : SimpleHttpResponse.withBody(response, body);
+                    if (recordedResponse != null && response.statusCode() == HttpURLConnection.HTTP_OK) {
+                        cache.put(recordedResponse, generation);
+                    }
+                    land(uri, flight, recordedResponse);
+                }));
+            return recordingResponse;
+        }).whenComplete((response, error) -> {
+            if (error != null) {
+                land(uri, flight, null);
+            }
+        });
+    }
+
+    /**
+     * Wait for a future response.
+     *
+     * @param future the future to wait for.
+     * @param <T> the type of the result.
+     * @return the result of the future.
+     * @throws DocException if the future failed.
+     */
+    static <T> T await(CompletableFuture<T> future) throws DocException
+    {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            var cause = getCause(e.getCause());
+            if (cause instanceof DocException docException) {
+                throw docException;
+            }
+            throw new DocException(cause instanceof Exception exception ? exception : e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DocException(e);
+        }
+    }
+
+    private static Throwable getCause(Throwable error)
+    {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * Send the request of a flight. The flight has to land whatever happens, so failing to send the request fails the
+     * future response rather than throwing.
+     */
+    private <T> CompletableFuture<HttpResponse<T>> sendFlight(HttpRequest.Builder builder,
+        HttpResponse.BodyHandler<T> bodyHandler)
+    {
+        try {
+            return sendAsync(builder, bodyHandler);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * End a flight, handing its response over to the requests which joined it.
+     *
+     * @param response the response of the flight, null to let the requests which joined it send their own
+     */
+    private void land(URI uri, CompletableFuture<HttpResponse<byte[]>> flight, HttpResponse<byte[]> response)
+    {
+        flights.remove(uri, flight);
+        flight.complete(response);
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> send(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler)
+    {
+        if (GET.equals(request.method())) {
+            return sendWithRetries(request, bodyHandler, 1);
+        }
+
+        // Once the modification is done, so a GET response received in the meantime is not kept either.
+        return submit(request, bodyHandler).whenComplete((r, e) -> cache.invalidate(request.uri()));
+    }
+
+    private <T> CompletableFuture<HttpResponse<T>> submit(HttpRequest request,
+        HttpResponse.BodyHandler<T> bodyHandler)
+    {
+        return RequestScheduler.get().submit(request.uri(), () -> {
+            HTTPStatistics.addRequest();
+            return client.sendAsync(request, bodyHandler);
+        });
+    }
+
+    /**
+     * Send an idempotent request, sending it again after a while if the server is overloaded or too slow to answer.
+     */
+    private <T> CompletableFuture<HttpResponse<T>> sendWithRetries(HttpRequest request,
+        HttpResponse.BodyHandler<T> bodyHandler, int attempt)
+    {
+        return submit(request, bodyHandler).handle((response, error) -> {
+            if (attempt >= MAX_ATTEMPTS || !RequestScheduler.isOverloaded(response, error)) {
+                return error == null
+                    ? CompletableFuture.completedFuture(response)
+                    : CompletableFuture.<HttpResponse<T>>failedFuture(error);
+            }
+
+            if (response != null && response.body() instanceof Closeable body) {
+                close(body);
+            }
+            HTTPStatistics.addRetry();
+            var delay = RetryBackoff.getDelay(response, attempt);
+            if (cmd.debug()) {
+                err.println("Retrying [" + request.uri() + "] in " + delay + " ms after "
+                    + (response == null ? getCause(error) : "status " + response.statusCode()));
+            }
+            var delayedExecutor = CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS);
+            return CompletableFuture.runAsync(() -> { }, delayedExecutor)
+                .thenCompose(v -> sendWithRetries(request, bodyHandler, attempt + 1));
+        }).thenCompose(Function.identity());
+    }
+
+    /**
+     * @param authenticate true to authenticate the request even if the session has a cookie, false to authenticate
+     *     it only if the session has no cookie yet.
+     */
+    private HttpRequest buildRequest(HttpRequest.Builder builder, boolean authenticate)
+    {
+        var givenRequest = builder.copy().build();
+
+        var acceptEncodingGiven = false;
+        for (var header : cmd.headers().entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+            acceptEncodingGiven |= ACCEPT_ENCODING.equalsIgnoreCase(header.getKey());
+        }
+
+        // Ranges would apply to the encoded body, and decoding it requires the previous bytes anyway.
+        if (!acceptEncodingGiven && givenRequest.headers().firstValue("Range").isEmpty()) {
+            builder.header(ACCEPT_ENCODING, "gzip, deflate");
+        }
+
+        // Once the server gave a session cookie, the session is authenticated and checking the password again on each
+        // read would only slow the server down. Modifications are rarer, and can't be let through as guest.
+        if (hasCredentials() && (authenticate || !GET.equals(givenRequest.method())
+            || cookieManager.getCookieStore().get(givenRequest.uri()).isEmpty())) {
+            builder.header(AUTHORIZATION,
+                "Basic " + Base64.getEncoder().encodeToString((cmd.user() + ":" + cmd.pass()).getBytes())
+            );
+        }
+
+        if (requestTimeout != null) {
+            builder.timeout(requestTimeout);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * @param response the response to a request sent with the session cookie instead of the credentials.
+     * @return true if the session expired, so the request was handled as guest.
+     */
+    private static boolean isSessionExpired(HttpResponse<?> response)
+    {
+        if (response.statusCode() == HttpURLConnection.HTTP_UNAUTHORIZED
+            || response.statusCode() == HttpURLConnection.HTTP_FORBIDDEN) {
+            return true;
+        }
+
+        // The session cookie was not recognized: the guest user can see the resource, but maybe not all of it.
+        return response.headers().allValues("Set-Cookie").stream().anyMatch(
+            cookie -> cookie.regionMatches(true, 0, NEW_SESSION_COOKIE, 0, NEW_SESSION_COOKIE.length()));
+    }
+
+    private boolean hasCredentials()
+    {
+        return Utils.present(cmd.user()) && Utils.present(cmd.pass());
+    }
+
+    private static void close(Closeable body)
+    {
+        try {
+            body.close();
+        } catch (IOException e) {
+            // The body is discarded, there is nothing else to do with it.
+        }
+    }
+
+    /**
+     * A session sends the credentials and the custom headers of the command which created it, so commands can only
+     * share it if they would send the same ones.
+     */
+    private static String getSessionKey(Command cmd)
+    {
+        var headers = cmd.headers().entrySet().stream().sorted(Map.Entry.comparingByKey()).toList();
+        return String.join("\n", String.valueOf(cmd.url()), String.valueOf(cmd.user()), String.valueOf(cmd.pass()),
+            headers.toString());
+    }
+
+    private static void configureConnectionPool()
+    {
+        if (System.getProperty(PROPERTY_CONNECTION_POOL_SIZE) == null) {
+            System.setProperty(PROPERTY_CONNECTION_POOL_SIZE, DEFAULT_CONNECTION_POOL_SIZE);
+        }
+
+        if (System.getProperty(PROPERTY_KEEPALIVE_TIMEOUT) == null) {
+            System.setProperty(PROPERTY_KEEPALIVE_TIMEOUT, DEFAULT_KEEPALIVE_TIMEOUT);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the HTTP traffic of the process, printed in debug mode.
+ *
+ * @version $Id$
+ */
+final class HTTPStatistics
+{
+    private static final LongAdder REQUESTS = new LongAdder();
+
+    private static final LongAdder RETRIES = new LongAdder();
+
+    private static final LongAdder REVALIDATED = new LongAdder();
+
+    private static final LongAdder COALESCED = new LongAdder();
+
+    private static final LongAdder RECEIVED_BYTES = new LongAdder();
+
+    private static final LongAdder DECODED_BYTES = new LongAdder();
+
+    private HTTPStatistics()
+    {
+        // Intentionally left blank.
+    }
+
+    static void addRequest()
+    {
+        REQUESTS.increment();
+    }
+
+    /**
+     * Count a request sent again because the server was overloaded or unreachable.
+     */
+    static void addRetry()
+    {
+        RETRIES.increment();
+    }
+
+    /**
+     * Count a GET response served from the cache after a "304 Not Modified" response.
+     */
+    static void addRevalidated()
+    {
+        REVALIDATED.increment();
+    }
+
+    /**
+     * Count a GET request which shared the response of an identical request in flight instead of being sent.
+     */
+    static void addCoalesced()
+    {
+        COALESCED.increment();
+    }
+
+    /**
+     * @param received the number of bytes of a response body, as received from the network.
+     * @param decoded the number of bytes of this response body, once decoded.
+     */
+    static void addReceived(long received, long decoded)
+    {
+        RECEIVED_BYTES.add(received);
+        DECODED_BYTES.add(decoded);
+    }
+
+    /**
+     * @return a human readable summary of the HTTP traffic of the process.
+     */
+    static String summary()
+    {
+        var received = RECEIVED_BYTES.sum();
+        var decoded = DECODED_BYTES.sum();
+        return "HTTP requests: " + REQUESTS.sum()
+            + "\nHTTP requests retried: " + RETRIES.sum()
+            + "\nHTTP responses revalidated from the cache: " + REVALIDATED.sum()
+            + "\nHTTP requests sharing the response of an identical one: " + COALESCED.sum()
+            + "\nHTTP bytes received: " + received
+            + "\nHTTP bytes decoded:  " + decoded
+            + (decoded > received
+            ? String.format(" (%.1f%% saved by compression)", 100.0 * (decoded - received) / decoded)
+            : "");
+    }
+}
@@ -49,6 +49,7 @@ final class Main
         if (cmd.debug()) {
             cmd.print();
             out.println();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> err.println(HTTPStatistics.summary())));
         }
 
         try {
@@ -68,6 +69,16 @@ final class Main
         return args[i + 1];
     }
 
+    private static int getNextIntParameter(String[] args, int i) throws CommandException
+    {
+        var parameter = getNextParameter(args, i);
+        try {
+            return Integer.parseInt(parameter);
+        } catch (NumberFormatException e) {
+            throw new CommandException("Expected a number for " + args[i] + ", got " + parameter);
+        }
+    }
+
     private static Command parseArgs(String[] args) throws CommandException
     {
         Command.Action action = null;
@@ -98,6 +109,10 @@ final class Main
         boolean debug = false;
         boolean pom = false;
         boolean acceptNewDocument = false;
+        int connectTimeout = 0;
+        int requestTimeout = 0;
+        int maxRequests = 0;
+        int attrTimeout = -1;
 
         var i = 0;
         while (i < args.length) {
@@ -122,7 +137,7 @@ final class Main
                 case "--editor" -> editor = getNextParameter(args, i++);
                 case "--pom" -> pom = true;
                 case "-H" -> {
-                    String[] header = HEADER_SPLIT_PATTERN.split(getNextParameter(args, i));
+                    String[] header = HEADER_SPLIT_PATTERN.split(getNextParameter(args, i++));
                     headers.put(header[0], header[1]);
                 }
                 case "--user" -> user = getNextParameter(args, i++);
@@ -173,6 +188,10 @@ final class Main
                     syncPath = getNextParameter(args, i++);
                     action = Command.Action.SYNC;
                 }
+                case "--connect-timeout" -> connectTimeout = getNextIntParameter(args, i++);
+                case "--request-timeout" -> requestTimeout = getNextIntParameter(args, i++);
+                case "--max-requests" -> maxRequests = getNextIntParameter(args, i++);
+                case "--attr-timeout" -> attrTimeout = getNextIntParameter(args, i++);
                 case "--ext" -> fileExtension = getNextParameter(args, i++);
                 case "--debug" -> debug = true;
                 case "--print-xml" -> printXML = true;
@@ -194,7 +213,8 @@ final class Main
         var cmd = new Command(
             action, wiki, page, objectClass, objectNumber, property, value, editor, wikiReadonly,
             wikiWriteonly, outputFile, inputFile, xmlReadDir, xmlWriteDir, headers, url, user, pass, content, title,
-            mountPath, syncPath, syncDataSource, printXML, fileExtension, debug, pom, acceptNewDocument);
+            mountPath, syncPath, syncDataSource, printXML, fileExtension, debug, pom, acceptNewDocument, connectTimeout,
+            requestTimeout, maxRequests, attrTimeout);
 
         if (cmd.action() == null) {
             throw new CommandException("Please specify an action. Try --help for help.");
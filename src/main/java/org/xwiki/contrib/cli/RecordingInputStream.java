@@ -0,0 +1,139 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.xwiki.contrib.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Consumer;
+
+/**
+ * Copy the bytes of a stream as they are read, and hand the copy over once the whole stream is read.
+ * <p>
+ * The copy is given up as soon as it grows larger than a given size, and the copy handler then receives null. It also
+ * receives null if the stream fails, if it is skipped through, or if it is closed before its end: the rest of the
+ * stream is not read only to complete the copy.
+ *
+ * @version $Id$
+ */
+final class RecordingInputStream extends FilterInputStream
+{
+    private final int maxSize;
+
+    private Consumer<byte[]> copyHandler;
+
+    private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+    /**
+     * @param in the stream to read.
+     * @param maxSize the maximum number of bytes to copy.
+     * @param copyHandler called once with the copy of the whole stream, or null if there is none.
+     */
+    RecordingInputStream(InputStream in, int maxSize, Consumer<byte[]> copyHandler)
+    {
+        super(in);
+        this.maxSize = maxSize;
+        this.copyHandler = copyHandler;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        int b;
+        try {
+            b = super.read();
+        } catch (IOException e) {
+            end(false);
+            throw e;
+        }
+
+        if (b == -1) {
+            end(true);
+        } else if (copy != null) {
+            copy.write(b);
+            checkSize();
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        int length;
+        try {
+            length = super.read(b, off, len);
+        } catch (IOException e) {
+            end(false);
+            throw e;
+        }
+
+        if (length == -1) {
+            end(true);
+        } else if (copy != null) {
+            copy.write(b, off, length);
+            checkSize();
+        }
+        return length;
+    }
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+        end(false);
+        return super.skip(n);
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try {
+            end(false);
+        } finally {
+            super.close();
+        }
+    }
+
+    private void checkSize()
+    {
+        if (copy.size() > maxSize) {
+            end(false);
+        }
+    }
+
+    private void end(boolean complete)
+    {
+        if (copyHandler != null) {
+            var handler = copyHandler;
+            copyHandler = null;
+            var bytes = complete && copy != null ? copy.toByteArray() : null;
+            copy = null;
+            handler.accept(bytes);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli;
+
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Limit the number of HTTP requests in flight for the whole process.
+ * <p>
+ * Requests waiting for a slot are queued per host, and hosts are served in turn so a bulk operation on one wiki can't
+ * starve requests to another one.
+ * <p>
+ * The limit adapts to the load of the servers: it is halved when a server answers "429 Too Many Requests" or "503
+ * Service Unavailable", or when a request times out connecting or waiting for its response, and it grows back
+ * slowly, up to the configured maximum, as requests succeed. Other failures, such as a refused connection or an unknown
+ * host, don't tell anything about the load of the server.
+ *
+ * @version $Id$
+ */
+final class RequestScheduler
+{
+    private static final int DEFAULT_MAX_IN_FLIGHT = 8;
+
+    private static final double DECREASE_FACTOR = 0.5;
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final int HTTP_SERVICE_UNAVAILABLE = 503;
+
+    private static final RequestScheduler INSTANCE = new RequestScheduler();
+
+    private final Map<String, ArrayDeque<Runnable>> pendingByHost = new HashMap<>();
+
+    private final ArrayDeque<String> hostsWithPendingRequests = new ArrayDeque<>();
+
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+    private double limit = DEFAULT_MAX_IN_FLIGHT;
+
+    /**
+     * Incremented each time the limit is decreased. The requests started before a decrease were sent under the
+     * previous limit, so their failures must not decrease the limit once more.
+     */
+    private long epoch;
+
+    private int inFlight;
+
+    /**
+     * Use {@link #get()} rather than creating a scheduler, so the limit applies to the whole process.
+     */
+    RequestScheduler()
+    {
+        // Intentionally left blank.
+    }
+
+    /**
+     * @return the scheduler of the process.
+     */
+    static RequestScheduler get()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * @param maxInFlight the maximum number of requests in flight at the same time.
+     */
+    void setMaxInFlight(int maxInFlight)
+    {
+        List<Runnable> started;
+        synchronized (this) {
+            this.maxInFlight = Math.max(1, maxInFlight);
+            this.limit = this.maxInFlight;
+            started = dequeue();
+        }
+        started.forEach(Runnable::run);
+    }
+
+    /**
+     * Start the given request as soon as a slot is available.
+     *
+     * @param uri the URI of the request, used to share the slots fairly between hosts.
+     * @param request starts the request and returns its future response.
+     * @param <T> the type of the response body.
+     * @return the future response.
+     */
+    <T> CompletableFuture<HttpResponse<T>> submit(URI uri, Supplier<CompletableFuture<HttpResponse<T>>> request)
+    {
+        var result = new CompletableFuture<HttpResponse<T>>();
+        Runnable start = () -> {
+            var startEpoch = getEpoch();
+            CompletableFuture<HttpResponse<T>> response;
+            try {
+                response = request.get();
+            } catch (RuntimeException e) {
+                response = CompletableFuture.failedFuture(e);
+            }
+            response.whenComplete((value, error) -> {
+                release(isOverloaded(value, error), startEpoch);
+                if (error == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(error);
+                }
+            });
+        };
+
+        var host = uri.getHost() + ':' + uri.getPort();
+        List<Runnable> started;
+        synchronized (this) {
+            var pending = pendingByHost.computeIfAbsent(host, h -> new ArrayDeque<>());
+            if (pending.isEmpty()) {
+                hostsWithPendingRequests.add(host);
+            }
+            pending.add(start);
+            started = dequeue();
+        }
+        started.forEach(Runnable::run);
+
+        return result;
+    }
+
+    /**
+     * @param response the response to a request, null if the request failed.
+     * @param error the reason why the request failed, null if it didn't.
+     * @return true if the response or the error tells the server can't cope with the current load.
+     */
+    static boolean isOverloaded(HttpResponse<?> response, Throwable error)
+    {
+        if (error != null) {
+            var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            // Connect timeouts are timeouts as well.
+            return cause instanceof HttpTimeoutException;
+        }
+
+        return response.statusCode() == HTTP_TOO_MANY_REQUESTS || response.statusCode() == HTTP_SERVICE_UNAVAILABLE;
+    }
+
+    private synchronized long getEpoch()
+    {
+        return epoch;
+    }
+
+    private void release(boolean overloaded, long startEpoch)
+    {
+        List<Runnable> started;
+        synchronized (this) {
+            inFlight--;
+            if (!overloaded) {
+                // Additive increase: about one more slot once a full window of requests succeeded.
+                limit = Math.min(maxInFlight, limit + 1 / limit);
+            } else if (startEpoch == epoch) {
+                limit = Math.max(1, limit * DECREASE_FACTOR);
+                epoch++;
+            }
+            started = dequeue();
+        }
+        started.forEach(Runnable::run);
+    }
+
+    /**
+     * Take as many pending requests as there are free slots, one host after the other. The requests are started by
+     * the caller, outside of the lock.
+     */
+    private List<Runnable> dequeue()
+    {
+        var started = new ArrayList<Runnable>();
+        while (inFlight < (int) limit && !hostsWithPendingRequests.isEmpty()) {
+            var host = hostsWithPendingRequests.poll();
+            var pending = pendingByHost.get(host);
+            started.add(pending.poll());
+            if (pending.isEmpty()) {
+                pendingByHost.remove(host);
+            } else {
+                hostsWithPendingRequests.add(host);
+            }
+            inFlight++;
+        }
+        return started;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli;
+
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delays before sending again a request the server could not handle. They grow exponentially, with full jitter so
+ * clients failing at the same time don't all come back at the same time, and they are at least what the server asked
+ * for with a Retry-After header.
+ *
+ * @version $Id$
+ */
+final class RetryBackoff
+{
+    private static final long INITIAL_BACKOFF_MS = 250;
+
+    private static final long MAX_BACKOFF_MS = 8000;
+
+    private static final long MAX_RETRY_AFTER_MS = 60000;
+
+    private RetryBackoff()
+    {
+        // Intentionally left blank.
+    }
+
+    /**
+     * @param response the response which asked to retry later, null if the request failed.
+     * @param attempt the number of attempts so far.
+     * @return the number of milliseconds to wait before the next attempt.
+     */
+    static long getDelay(HttpResponse<?> response, int attempt)
+    {
+        var backoff = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << (attempt - 1));
+        var delay = ThreadLocalRandom.current().nextLong(backoff + 1);
+
+        var retryAfter = response == null ? Optional.<String>empty() : response.headers().firstValue("Retry-After");
+        if (retryAfter.isPresent()) {
+            delay = Math.max(delay, Math.min(MAX_RETRY_AFTER_MS, parseRetryAfter(retryAfter.get())));
+        }
+
+        return delay;
+    }
+
+    /**
+     * @return the delay in milliseconds given by a Retry-After header, either as seconds or as a date.
+     */
+    private static long parseRetryAfter(String retryAfter)
+    {
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            try {
+                var date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, Duration.between(ZonedDateTime.now(), date).toMillis());
+            } catch (DateTimeParseException e2) {
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Optional;
+
+import javax.net.ssl.SSLSession;
+
+/**
+ * An HTTP response built by us rather than received as is, e.g. served from the cache.
+ *
+ * @param statusCode the status code of the response.
+ * @param request the request the response answers.
+ * @param headers the headers of the response.
+ * @param body the body of the response.
+ * @param uri the URI of the response.
+ * @param version the HTTP version of the response.
+ * @param <T> the type of the response body.
+ * @version $Id$
+ */
+record SimpleHttpResponse<T>(int statusCode, HttpRequest request, HttpHeaders headers, T body, URI uri,
+    HttpClient.Version version) implements HttpResponse<T>
+{
+    /**
+     * @param response the response to take everything but the body from.
+     * @param body the body of the new response.
+     * @param <T> the type of the response body.
+     * @return a response like the given one, but with the given body.
+     */
+    static <T> SimpleHttpResponse<T> withBody(HttpResponse<?> response, T body)
+    {
+        return new SimpleHttpResponse<>(response.statusCode(), response.request(), response.headers(), body,
+            response.uri(), response.version());
+    }
+
+    @Override
+    public Optional<HttpResponse<T>> previousResponse()
+    {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<SSLSession> sslSession()
+    {
+        return Optional.empty();
+    }
+}
@@ -20,28 +20,29 @@
 
 package org.xwiki.contrib.cli;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.net.URI;
 import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpRequest.BodyPublishers;
 import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Base64;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import org.dom4j.Document;
-import org.dom4j.DocumentException;
 import org.dom4j.Namespace;
-import org.dom4j.io.SAXReader;
-import org.xml.sax.SAXException;
+import org.xml.sax.InputSource;
 
 /**
  * Utils.
@@ -223,11 +224,27 @@ public final class Utils
      */
     public static HttpResponse<String> httpPut(Command cmd, String url, String content, String mimetype)
         throws DocException
+    {
+        return httpPut(cmd, url, BodyPublishers.ofString(content), mimetype);
+    }
+
+    /**
+     * Perform a PUT request, with a body produced while it is sent.
+     *
+     * @param cmd the Command produced by parsing arguments from the cli. It contains authentication and custom
+     *     headers to use.
+     * @param url the URL to use.
+     * @param content the publisher of the content to set. It may be subscribed again if the request is retried.
+     * @param mimetype the mimetype of the content to set. null to use the default "text/plain; charset=utf8".
+     * @return the HTTP reponse.
+     */
+    public static HttpResponse<String> httpPut(Command cmd, String url, HttpRequest.BodyPublisher content,
+        String mimetype) throws DocException
     {
         return internalHttpRequest(cmd, HttpRequest.newBuilder()
             .uri(URI.create(url))
             .header(CONTENT_TYPE, mimetype == null ? TEXT_PLAIN_CHARSET_UTF_8 : mimetype)
-            .PUT(BodyPublishers.ofString(content)), HttpResponse.BodyHandlers.ofString());
+            .PUT(content), HttpResponse.BodyHandlers.ofString());
     }
 
     /**
@@ -249,6 +266,33 @@ public final class Utils
             .PUT(BodyPublishers.ofByteArray(content)), HttpResponse.BodyHandlers.ofString());
     }
 
+    /**
+     * Perform a PUT request, streaming the content from a file.
+     *
+     * @param cmd the Command produced by parsing arguments from the cli. It contains authentication and custom
+     *     headers to use.
+     * @param url the URL to use.
+     * @param content the file containing the content to set.
+     * @param mimetype the mimetype of the content to set. null to use the default "text/plain; charset=utf8".
+     * @return the HTTP reponse.
+     * @throws DocException if the file could not be read or if the request failed.
+     */
+    public static HttpResponse<String> httpPut(Command cmd, String url, Path content, String mimetype)
+        throws DocException
+    {
+        HttpRequest.BodyPublisher publisher;
+        try {
+            publisher = BodyPublishers.ofFile(content);
+        } catch (FileNotFoundException e) {
+            throw new DocException(e);
+        }
+
+        return internalHttpRequest(cmd, HttpRequest.newBuilder()
+            .uri(URI.create(url))
+            .header(CONTENT_TYPE, mimetype == null ? TEXT_PLAIN_CHARSET_UTF_8 : mimetype)
+            .PUT(publisher), HttpResponse.BodyHandlers.ofString());
+    }
+
     /**
      * Perform a GET request.
      *
@@ -258,10 +302,62 @@ public final class Utils
      * @return the HTTP reponse.
      */
     public static HttpResponse<String> httpGet(Command cmd, String url) throws DocException
+    {
+        var response = await(HTTPSession.get(cmd).getAsync(URI.create(url)));
+        return SimpleHttpResponse.withBody(response, new String(response.body(), getCharset(response)));
+    }
+
+    /**
+     * Perform a GET request without buffering the response body.
+     *
+     * @param cmd the Command produced by parsing arguments from the cli. It contains authentication and custom
+     *     headers to use.
+     * @param url the URL to use.
+     * @return the HTTP reponse. Its body is to be read or closed promptly, as concurrent requests for the same URL
+     *     wait for it.
+     * @throws DocException if the request failed.
+     */
+    public static HttpResponse<InputStream> httpGetStream(Command cmd, String url) throws DocException
+    {
+        return await(HTTPSession.get(cmd).getStreamAsync(URI.create(url)));
+    }
+
+    /**
+     * Perform a GET request for a range of bytes of a resource.
+     *
+     * @param cmd the Command produced by parsing arguments from the cli. It contains authentication and custom
+     *     headers to use.
+     * @param url the URL to use.
+     * @param offset the position of the first byte to get.
+     * @param length the number of bytes to get.
+     * @return the HTTP reponse, "206 Partial Content" if the server honored the range.
+     * @throws DocException if the request failed.
+     */
+    public static HttpResponse<byte[]> httpGetRange(Command cmd, String url, long offset, int length)
+        throws DocException
     {
         return internalHttpRequest(cmd, HttpRequest.newBuilder()
             .uri(URI.create(url))
-            .GET(), HttpResponse.BodyHandlers.ofString());
+            .header("Range", "bytes=" + offset + '-' + (offset + length - 1))
+            .GET(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    /**
+     * Perform a GET request and parse the XML response body as it is received.
+     *
+     * @param cmd the Command produced by parsing arguments from the cli. It contains authentication and custom
+     *     headers to use.
+     * @param url the URL to use.
+     * @return the parsed response body.
+     * @throws DocException if the request failed or if the response body could not be parsed.
+     */
+    public static Document httpGetXML(Command cmd, String url) throws DocException
+    {
+        try (var body = httpGetStream(cmd, url).body()) {
+            return parseXML(body);
+        } catch (IOException e) {
+            throw new DocException(e);
+        }
     }
 
     /**
@@ -297,6 +393,18 @@ public final class Utils
         return encodedURL;
     }
 
+    /**
+     * @param bytes the bytes to take a range of.
+     * @param offset the position of the first byte of the range.
+     * @param length the maximum length of the range.
+     * @return the bytes in the given range, fewer than asked if the range goes past the end of the given bytes.
+     */
+    public static byte[] getRange(byte[] bytes, long offset, int length)
+    {
+        var start = (int) Math.min(offset, bytes.length);
+        return Arrays.copyOfRange(bytes, start, (int) Math.min(bytes.length, (long) start + length));
+    }
+
     /**
      * Parse an XML document into a DOM.
      *
@@ -306,24 +414,25 @@ public final class Utils
      */
     public static Document parseXML(String xml) throws DocException
     {
-        Document dom = null;
-
-        if (xml != null) {
-            var reader = new SAXReader();
-            try {
-                reader.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-            } catch (SAXException e) {
-                throw new DocException(e);
-            }
+        return xml == null ? null : parseXML(new InputSource(new StringReader(xml)));
+    }
 
-            try {
-                dom = reader.read(new StringReader(xml));
-                dom.getRootElement().add(new Namespace(XWIKI, "http://www.xwiki.org"));
-            } catch (DocumentException e) {
-                throw new DocException(e);
-            }
-        }
+    /**
+     * Parse XML as it is read from a stream, without buffering it first.
+     *
+     * @param xml the stream to read the XML from. It is not closed.
+     * @return the parsed document.
+     * @throws DocException if the XML could not be read or parsed.
+     */
+    public static Document parseXML(InputStream xml) throws DocException
+    {
+        return xml == null ? null : parseXML(new InputSource(xml));
+    }
 
+    private static Document parseXML(InputSource xml) throws DocException
+    {
+        var dom = XMLParser.parse(xml);
+        dom.getRootElement().add(new Namespace(XWIKI, "http://www.xwiki.org"));
         return dom;
     }
 
@@ -422,22 +531,6 @@ public final class Utils
         return v == null || v.isEmpty();
     }
 
-    /**
-     * Escape string for XML encoding.
-     *
-     * @param str string to escape
-     * @return the escaped value for XML content
-     */
-    public static String escapeXML(String str)
-    {
-        return str
-            .replace("&", "&amp;")
-            .replace(SINGLE_QUOTE, "&apos;")
-            .replace("\"", "&quot;")
-            .replace("<", "&lt;")
-            .replace(">", "&gt;");
-    }
-
     /**
      * Return the macro language which are in the content.
      *
@@ -519,38 +612,38 @@ public final class Utils
         }
     }
 
-    private static HttpClient getHTTPClient(Command cmd)
+    private static Charset getCharset(HttpResponse<?> response)
     {
-        return HttpClient.newBuilder().build();
+        var contentType = response.headers().firstValue(CONTENT_TYPE).orElse("");
+        for (var parameter : contentType.split(";")) {
+            var nameValue = parameter.split("=", 2);
+            if (nameValue.length == 2 && "charset".equalsIgnoreCase(nameValue[0].trim())) {
+                try {
+                    return Charset.forName(nameValue[1].replace('"', ' ').trim());
+                } catch (IllegalArgumentException e) {
+                    // Unknown charset, fall back to UTF-8.
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
     }
 
-    private static HttpRequest.Builder setHeadersFromCommand(Command cmd, HttpRequest.Builder builder)
+    /**
+     * Wait for the response of a request performed asynchronously.
+     *
+     * @param response the future response.
+     * @param <T> the type of the response body.
+     * @return the HTTP response.
+     * @throws DocException if the request failed.
+     */
+    private static <T> HttpResponse<T> await(CompletableFuture<HttpResponse<T>> response) throws DocException
     {
-        for (var header : cmd.headers().entrySet()) {
-            builder.header(header.getKey(), header.getValue());
-        }
-
-        if (present(cmd.user()) && present(cmd.pass())) {
-            builder.header("Authorization",
-                "Basic " + Base64.getEncoder().encodeToString((cmd.user() + ":" + cmd.pass()).getBytes())
-            );
-        }
-        return builder;
+        return HTTPSession.await(response);
     }
 
     private static <T> HttpResponse<T> internalHttpRequest(Command cmd, HttpRequest.Builder url,
         HttpResponse.BodyHandler<T> bodyHandler) throws DocException
     {
-        var client = getHTTPClient(cmd);
-        var request = setHeadersFromCommand(
-            cmd,
-            url
-        ).build();
-
-        try {
-            return client.send(request, bodyHandler);
-        } catch (IOException | InterruptedException e) {
-            throw new DocException(e);
-        }
+        return HTTPSession.get(cmd).send(url, bodyHandler);
     }
 }
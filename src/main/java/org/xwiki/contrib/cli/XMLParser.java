@@ -0,0 +1,76 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentException;
+import org.dom4j.io.SAXReader;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Parse XML documents into DOMs, reusing parsers.
+ * <p>
+ * Creating a parser means looking up the parser implementation and configuring it, which costs more than parsing a
+ * small document. Parsers are not thread-safe, so each thread keeps its own.
+ *
+ * @version $Id$
+ */
+final class XMLParser
+{
+    private static final ThreadLocal<SAXReader> READER = new ThreadLocal<>();
+
+    private XMLParser()
+    {
+        // Static helpers only.
+    }
+
+    /**
+     * @param xml the XML to parse.
+     * @return the parsed document.
+     * @throws DocException if the XML could not be read or parsed.
+     */
+    static Document parse(InputSource xml) throws DocException
+    {
+        try {
+            return getReader().read(xml);
+        } catch (DocumentException e) {
+            // Don't reuse a parser which failed in the middle of a document.
+            READER.remove();
+            throw new DocException(e);
+        }
+    }
+
+    private static SAXReader getReader() throws DocException
+    {
+        var reader = READER.get();
+        if (reader == null) {
+            reader = new SAXReader();
+            try {
+                reader.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            } catch (SAXException e) {
+                throw new DocException(e);
+            }
+            READER.set(reader);
+        }
+        return reader;
+    }
+}
@@ -5,6 +5,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
@@ -16,6 +17,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.xwiki.contrib.cli.document.MultipleDoc;
+import org.xwiki.contrib.cli.document.Projection;
 import org.xwiki.contrib.cli.document.XMLFileDoc;
 
 import static java.lang.System.out;
@@ -139,6 +141,17 @@ class XWikiDirSync
         }
     }
 
+    private static void copyAttachment(XMLFileDoc xmlFile, String attachmentName, Path attachmentFilePath)
+        throws DocException, IOException
+    {
+        try (var attachmentContent = xmlFile.openAttachment(attachmentName)) {
+            if (attachmentContent == null) {
+                throw new DocException(String.format("Can't find attachment with name '%s'", attachmentName));
+            }
+            Files.copy(attachmentContent, attachmentFilePath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     private void syncFileFromMvnRepos(Path srcFile) throws DocException, IOException
     {
         var xmlFile = new XMLFileDoc(command, srcFile.toString());
@@ -165,10 +178,9 @@ class XWikiDirSync
         }
 
         for (var attachment : xmlFile.getAttachments()) {
-            var attachmentContent = xmlFile.getAttachment(attachment.name());
             var attachmentFilePath = Path.of(dstFile, "attachments", attachment.name());
             Files.createDirectories(attachmentFilePath.getParent());
-            Files.write(attachmentFilePath, attachmentContent);
+            copyAttachment(xmlFile, attachment.name(), attachmentFilePath);
             managedFiles.add(attachmentFilePath);
         }
 
@@ -204,12 +216,11 @@ class XWikiDirSync
     private void write(Path path) throws IOException
     {
         if (managedFiles.contains(path) && Files.exists(path)) {
-            var newContent = Files.readAllBytes(path);
-            putValue(syncPath.relativize(path).toString(), newContent);
+            putValue(syncPath.relativize(path).toString(), path);
         }
     }
 
-    private void putValue(String path, byte[] value)
+    private void putValue(String path, Path file)
     {
         Matcher pageMatcher = PAGES_PATTERN_MATCHER.matcher(path);
         if (pageMatcher.find()) {
@@ -217,7 +228,8 @@ class XWikiDirSync
             String page = pageMatcher.group(2).replace(FSDirUtils.DOT, FSDirUtils.ESCAPED_DOT);
 
             try {
-                MultipleDoc document = new MultipleDoc(command, command.wiki(), space + '.' + page);
+                MultipleDoc document =
+                    new MultipleDoc(command, command.wiki(), space + '.' + page, Projection.PAGE);
 
                 String remainingPath = path.substring(pageMatcher.end());
 
@@ -226,7 +238,7 @@ class XWikiDirSync
                     String className = propertyMatcher.group(1);
                     String objectNumber = propertyMatcher.group(2);
                     String propertyName = propertyMatcher.group(3);
-                    String stringValue = new String(value, StandardCharsets.UTF_8);
+                    String stringValue = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
 
                     document.setValue(className, objectNumber, propertyName, stringValue);
                     document.save();
@@ -234,7 +246,7 @@ class XWikiDirSync
                 }
 
                 if (remainingPath.equals(URL_PART_CONTENT) || remainingPath.equals(URL_PART_TITLE)) {
-                    String stringValue = new String(value, StandardCharsets.UTF_8);
+                    String stringValue = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
                     if (remainingPath.equals(URL_PART_TITLE)) {
                         document.setTitle(stringValue.stripTrailing());
                     } else {
@@ -247,7 +259,7 @@ class XWikiDirSync
                 Matcher attachmentMatcher = ATTACHMENTS_PATTERN_MATCHER.matcher(remainingPath);
                 if (attachmentMatcher.matches()) {
                     String attachmentName = attachmentMatcher.group(1);
-                    document.setAttachment(attachmentName, value);
+                    document.setAttachment(attachmentName, file);
                     document.save();
                 }
             } catch (DocException | IOException e) {
@@ -23,16 +23,17 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import org.dom4j.Document;
 import org.dom4j.Element;
 import org.dom4j.Node;
 import org.xwiki.contrib.cli.document.MultipleDoc;
+import org.xwiki.contrib.cli.document.Projection;
 
+import jnr.constants.platform.OpenFlags;
 import jnr.ffi.Pointer;
 import ru.serce.jnrfuse.ErrorCodes;
 import ru.serce.jnrfuse.FuseFillDir;
@@ -44,170 +45,199 @@ class XWikiFS extends FuseStubFS
 {
     private static final String DIR_NAME_PROPERTIES = "properties";
 
-    private static final String ATTACHMENTS_PATTERN = "^/attachments/([^/]+)$";
-
-    private static final Pattern ATTACHMENTS_PATTERN_MATCHER = Pattern.compile(ATTACHMENTS_PATTERN);
-
     private static final String DIR_NAME_SPACES = "spaces";
 
     private static final String DIR_NAME_PAGES = "pages";
 
-    private static final Pattern ATTACHMENT_PATTERN =
-        Pattern.compile("^(/wikis/[^/]+/spaces(?:/[^/]+/spaces)*/[^/]+/pages/[^/]+/attachments)/([^/]+)$");
-
-    private static final Pattern WIKI_DIRECTORY_CONTENTS_PATTERN = Pattern.compile("^/wikis/([^/]+)$");
-
-    private static final Pattern SPACE_LIST_PATTERN = Pattern.compile("^/wikis/([^/]+)/spaces((?:/[^/]+/spaces)*)$");
-
-    private static final Pattern SPACE_CONTENT_PATTERN =
-        Pattern.compile("^/wikis/[^/]+/spaces/[^/]+(?:/spaces/[^/]+)*$");
-
-    private static final Pattern CLASSES_PATTERN = Pattern.compile("^/wikis/[^/]+/classes$");
-
-    private static final Pattern PAGES_DIRECTORY_PATTERN =
-        Pattern.compile("^/wikis/[^/]+/spaces(?:/[^/]+/spaces)*/[^/]+/pages$");
-
-    private static final Pattern SINGLE_PAGE_DIRECTORY_PATTERN =
-        Pattern.compile("^/wikis/[^/]+/spaces(?:/[^/]+/spaces)*/[^/]+/pages/[^/]+$");
-
-    private static final Pattern ATTACHMENTS_DIRECTORY_PATTERN =
-        Pattern.compile("^/wikis/[^/]+/spaces(?:/[^/]+/spaces)*/[^/]+/pages/[^/]+/attachments");
-
-    private static final Pattern SINGLE_CLASS_DIRECTORY_PATTERN =
-        Pattern.compile("^/wikis/[^/]+/spaces(?:/[^/]+/spaces)*/[^/]+/pages/[^/]+/class$");
-
-    private static final Pattern OBJECTS_DIRECTORY_PATTERN =
-        Pattern.compile("^/wikis/[^/]+/spaces(?:/[^/]+/spaces)*/[^/]+/pages/[^/]+/objects$");
+    private static final String DIR_NAME_CONTENT = "content";
 
-    private static final Pattern OBJECT_INSTANCES_PATTERN =
-        Pattern.compile("^(/wikis/[^/]+/spaces(?:/[^/]+/spaces)*/[^/]+/pages/[^/]+/objects)/([^/]+)$");
+    private static final String URL_PART_REST = "/rest";
 
-    private static final Pattern OBJECT_CONTENT_PATTERN =
-        Pattern.compile("^/wikis/[^/]+/spaces(?:/[^/]+/spaces)*/[^/]+/pages/[^/]+/objects/[^/]+/[^/]+$");
+    private static final String URL_PART_SPACES = "/spaces/";
 
-    private static final Pattern PROPERTIES_DIRECTORY_PATTERN =
-        Pattern.compile("^(/wikis/[^/]+/spaces(?:/[^/]+/spaces)*/[^/]+/pages/[^/]+/objects/([^/]+)/[^/]+)/properties$");
+    private static final String URL_PART_REST_WIKIS = "/rest/wikis/";
 
-    private static final Pattern CLASS_PROPERTIES_MATCHER =
-        Pattern.compile("^(/wikis/[^/]+)/spaces((?:/[^/]+/spaces)*/[^/]+)/pages/([^/]+)/class/properties$");
+    private static final String ERROR_UNKNOWN_DIRECTORY = "Unknown directory";
 
-    private static final Pattern CLASS_PROPERTY_MATCHER =
-        Pattern.compile("^(/wikis/[^/]+)/spaces((?:/[^/]+/spaces)*/[^/]+)/pages/([^/]+)/class/properties/([^/]+)$");
+    private static final String DOT = ".";
 
-    private static final String URL_PART_REST = "/rest";
+    private static final String SLASH = "/";
 
-    private static final String URL_PART_SPACES = "/spaces/";
+    private static final String URL_PART_CLASSES = "/classes/";
 
-    private static final String DOT = ".";
+    private static final Map<FSPath.Type, String[]> FIXED_LISTINGS = new EnumMap<>(Map.of(
+        FSPath.Type.ROOT, new String[] { "wikis" },
+        FSPath.Type.WIKI, new String[] { DIR_NAME_SPACES, "classes"/*, "wiki.xml"*/ },
+        FSPath.Type.SPACE, new String[] { DIR_NAME_SPACES, DIR_NAME_PAGES/*, "space.xml"*/ },
+        FSPath.Type.PAGE, new String[] { "attachments", "class", "objects", /*"page.xml", */DIR_NAME_CONTENT,
+            "content.xwiki", "title" },
+        FSPath.Type.CLASS, new String[] {/*"class.xml", */DIR_NAME_PROPERTIES },
+        FSPath.Type.OBJECT, new String[] { DIR_NAME_PROPERTIES/*, "object.xml"*/ }
+    ));
 
-    private static final String SLASH = "/";
+    private static final String XPATH_ATTACHMENT = "/xwiki:attachments/xwiki:attachment";
 
-    private static final String ESCAPED_DOT = "\\.";
+    private static final String XPATH_NAME = "xwiki:name";
 
-    private static final String URL_PART_CLASSES = "/classes/";
+    private final Command command;
 
-    private static final String URL_PART_CONTENT = "/content";
+    private final FSAttributeCache attributeCache;
 
-    private static final String URL_PART_TITLE = "/title";
+    private final FSDirectoryCache directoryCache;
 
-    private static final String DIR_NAME_CONTENT = "content";
+    private final FSPageCache pageCache;
 
-    private static final Pattern PAGES_PATTERN_MATCHER =
-        Pattern.compile("^/wikis/([^/]+)/(spaces(?:/[^/]+/spaces)*/[^/]+)/pages/([^/]+)");
+    private final FSFileHandles fileHandles = new FSFileHandles();
 
-    private static final Pattern OBJECTS_PROPERTIES_PATTERN_MATCHER =
-        Pattern.compile("^/objects/([^/]+)/([^/]+)/properties/([^/]+)$");
+    private final Map<FSPath.Type, Lister> listers = new EnumMap<>(FSPath.Type.class);
 
-    private final Command command;
+    /**
+     * List a directory whose entries come from the wiki.
+     */
+    @FunctionalInterface
+    private interface Lister
+    {
+        String[] list(FSPath path) throws DocException;
+    }
 
     XWikiFS(Command command)
     {
         this.command = command;
+        int timeout = command.attrTimeout() < 0 ? FSAttributeCache.DEFAULT_TIMEOUT : command.attrTimeout();
+        this.attributeCache = new FSAttributeCache(timeout);
+        this.directoryCache = new FSDirectoryCache(timeout);
+        this.pageCache = new FSPageCache(timeout);
+
+        listers.put(FSPath.Type.WIKIS, this::listWikis);
+        listers.put(FSPath.Type.SPACES, this::listSpaces);
+        listers.put(FSPath.Type.CLASSES, this::listClasses);
+        listers.put(FSPath.Type.PAGES, this::listPages);
+        listers.put(FSPath.Type.ATTACHMENTS, this::listAttachments);
+        listers.put(FSPath.Type.OBJECTS, this::listObjectClasses);
+        listers.put(FSPath.Type.OBJECT_CLASS, this::listObjectNumbers);
+        listers.put(FSPath.Type.OBJECT_PROPERTIES, this::listObjectProperties);
+        listers.put(FSPath.Type.CLASS_PROPERTIES, this::listClassProperties);
+        listers.put(FSPath.Type.CLASS_PROPERTY, this::listClassAttributes);
     }
 
     @Override
     public int getattr(String path, FileStat stat)
     {
-        int result = 0;
-        Matcher matcher = ATTACHMENT_PATTERN.matcher(path);
-        if (matcher.find()) {
-            String filename = matcher.group(2);
-            String encodedURLPart = FSDirUtils.escapeURLWithSlashes(matcher.group(1));
-            String attachmentsRestURL = this.command.url() + URL_PART_REST + encodedURLPart;
-            String a = null;
-            try {
-                a = Utils.httpGet(this.command, attachmentsRestURL).body();
-                Document doc = Utils.parseXML(a);
-                Element root = doc.getRootElement();
-                Node attachment = root.selectSingleNode(String.format("/xwiki:attachments/xwiki:attachment[./xwiki:name"
-                    + "/text() = %s]", Utils.escapeXPathString(filename)));
-                if (attachment != null) {
-                    Node sizeNode = attachment.selectSingleNode("xwiki:longSize | xwiki:size");
-                    long size = Long.parseLong(sizeNode.getText());
-                    stat.st_mode.set(FileStat.S_IFREG | 0644);
-                    stat.st_size.set(size);
-                } else {
-                    result = -ErrorCodes.ENOENT();
-                }
-            } catch (DocException e) {
-                result = -ErrorCodes.ENOENT();
+        if (setKnownAttributes(path, stat)) {
+            return 0;
+        }
+
+        FSPath fsPath = FSPath.parse(path);
+        return switch (fsPath.getType().getKind()) {
+            case DIRECTORY -> {
+                attributeCache.putDirectory(path);
+                setAttributes(stat, true, 0);
+                yield 0;
             }
-        } else if (path.matches("/wikis/[^/]+/classes/[^/]+$")
-            || path.matches("^.+/properties/[^/]+\\.[^/]+$")
-            || path.matches("^.+/class/properties/[^/]+/[^/]+\\.[^/]+$")
-            || path.matches("^.+/pages/[^/]+/content\\.[^/]+$"))
-        {
-            stat.st_mode.set(FileStat.S_IFLNK | 0644);
-            stat.st_size.set(0);
-        } else {
-            try {
-                listDir(path, true);
-                stat.st_mode.set(FileStat.S_IFDIR | 0755);
+            case LINK -> {
+                stat.st_mode.set(FileStat.S_IFLNK | 0644);
                 stat.st_size.set(0);
+                yield 0;
+            }
+            case FILE -> getFileAttributes(fsPath, stat);
+            default -> -ErrorCodes.ENOENT();
+        };
+    }
+
+    private int getFileAttributes(FSPath fsPath, FileStat stat)
+    {
+        if (fsPath.getType() == FSPath.Type.ATTACHMENT) {
+            try {
+                cacheAttachmentSizes(fsPath.getParentPath(), getRootOfRestDocument(getRestURL(fsPath.getParentPath())));
             } catch (DocException e) {
-                stat.st_mode.set(FileStat.S_IFREG | 0644);
-                stat.st_size.set(getValue(path).length);
+                return -ErrorCodes.ENOENT();
             }
+            FSAttributeCache.Attributes cached = attributeCache.get(fsPath.getPath());
+            if (cached == null) {
+                return -ErrorCodes.ENOENT();
+            }
+            setAttributes(stat, false, cached.size());
+        } else {
+            int size = getValue(fsPath).length;
+            attributeCache.putFile(fsPath.getPath(), size);
+            setAttributes(stat, false, size);
+        }
+        return 0;
+    }
+
+    private boolean setKnownAttributes(String path, FileStat stat)
+    {
+        // The size of a file being written is the one of its buffer until it is saved.
+        FSFileHandles.OpenFile openFile = fileHandles.getDirty(path);
+        if (openFile != null) {
+            setAttributes(stat, false, openFile.getLength());
+            return true;
         }
 
-        return result;
+        FSAttributeCache.Attributes cached = attributeCache.get(path);
+        if (cached != null) {
+            setAttributes(stat, cached.directory(), cached.size());
+            return true;
+        }
+
+        return false;
     }
 
-    @Override
-    public int readlink(String path, Pointer buf, long size)
+    private static void setAttributes(FileStat stat, boolean directory, long size)
     {
-        Pattern pattern1 = Pattern.compile("^.+/properties/(?:[^/]+/)?([^/]+)\\.[^/.]+$");
-        Matcher matcher1 = pattern1.matcher(String.valueOf(path));
-        if (matcher1.find()) {
-            String content = matcher1.group(1);
-            buf.putString(0L, content, (int) size, StandardCharsets.UTF_8);
-            return 0;
+        stat.st_mode.set(directory ? FileStat.S_IFDIR | 0755 : FileStat.S_IFREG | 0644);
+        stat.st_size.set(size);
+    }
+
+    private void cacheAttachmentSizes(String attachmentsPath, Element attachments)
+    {
+        // The attachment list gives the size of every attachment, cache them all since they are likely to be listed
+        // together.
+        for (Node attachment : attachments.selectNodes(XPATH_ATTACHMENT)) {
+            Node sizeNode = attachment.selectSingleNode("xwiki:longSize | xwiki:size");
+            if (sizeNode != null) {
+                String name = attachment.selectSingleNode(XPATH_NAME).getText();
+                attributeCache.putFile(attachmentsPath + SLASH + name, Long.parseLong(sizeNode.getText()));
+            }
         }
+    }
 
-        Pattern pattern2 = Pattern.compile("^.+/pages/(?:[^/]+/)(content)\\.[^/.]+$");
-        Matcher matcher2 = pattern2.matcher(String.valueOf(path));
-        if (matcher2.find()) {
-            String content = matcher2.group(1);
-            buf.putString(0L, content, (int) size, StandardCharsets.UTF_8);
-            return 0;
+    private String[] cacheDirectories(FSPath fsPath, String[] names)
+    {
+        for (String name : names) {
+            attributeCache.putDirectory(fsPath.getPath() + SLASH + name);
         }
+        return names;
+    }
 
-        Pattern pattern3 = Pattern.compile("/wikis/[^/]+/classes/([^/]+)$");
-        Matcher matcher3 = pattern3.matcher(String.valueOf(path));
-        if (matcher3.find()) {
-            String c = ".." + pageToSpacesAndPagesRESTURLPart(String.valueOf(matcher3.group(1))) + "/class";
-            buf.putString(0L, c, (int) size, StandardCharsets.UTF_8);
-            return 0;
+    @Override
+    public int readlink(String path, Pointer buf, long size)
+    {
+        FSPath fsPath = FSPath.parse(path);
+        String target = switch (fsPath.getType()) {
+            case CLASS_LINK -> ".." + pageToSpacesAndPagesRESTURLPart(fsPath.getName()) + "/class";
+            case CONTENT_LINK -> DIR_NAME_CONTENT;
+            case PROPERTY_LINK -> fsPath.getName();
+            default -> null;
+        };
+        if (target == null) {
+            return -ErrorCodes.ENOENT();
         }
 
-        return -ErrorCodes.ENOENT();
+        buf.putString(0L, target, (int) size, StandardCharsets.UTF_8);
+        return 0;
     }
 
     @Override
     public int readdir(String path, Pointer buf, FuseFillDir filter, long offset, FuseFileInfo fi)
     {
         try {
-            Arrays.stream(listDir(path, false)).forEach(
+            String[] names = directoryCache.get(path);
+            if (names == null) {
+                names = listDir(FSPath.parse(path));
+                directoryCache.put(path, names);
+            }
+            Arrays.stream(names).forEach(
                 filename -> filter.apply(buf, filename, null, 0)
             );
         } catch (DocException e) {
@@ -217,233 +247,225 @@ class XWikiFS extends FuseStubFS
         return 0;
     }
 
-    public String[] listDir(String path, boolean onlyTestIfExists) throws DocException
+    private String[] listDir(FSPath fsPath) throws DocException
     {
-        if (path.equals(SLASH)) {
-            return new String[] { "wikis" };
+        String[] names = FIXED_LISTINGS.get(fsPath.getType());
+        if (names != null) {
+            return names;
         }
 
-        if (path.equals("/wikis")) {
-            if (onlyTestIfExists) {
-                return null;
-            }
-
-            String wikisRestURL = command.url() + "/rest/wikis";
-            Element root = getRootOfRestDocument(wikisRestURL);
-
-            return root.selectNodes("/xwiki:wikis/xwiki:wiki/xwiki:id").stream()
-                .map(Node::getText)
-                .toArray(String[]::new);
+        Lister lister = listers.get(fsPath.getType());
+        if (lister == null) {
+            throw new DocException(ERROR_UNKNOWN_DIRECTORY);
         }
+        return lister.list(fsPath);
+    }
 
-        // Match pattern: /^/wikis/([^/]+)/spaces((?:/[^/]+/spaces)*)$/
-        Matcher spaceListMatch = SPACE_LIST_PATTERN.matcher(path);
-        if (spaceListMatch.matches()) {
-            if (onlyTestIfExists) {
-                return null;
-            }
+    private String[] listWikis(FSPath fsPath) throws DocException
+    {
+        Element root = getRootOfRestDocument(getRestURL(fsPath.getPath()));
+        return cacheDirectories(fsPath, root.selectNodes("/xwiki:wikis/xwiki:wiki/xwiki:id").stream()
+            .map(Node::getText)
+            .toArray(String[]::new));
+    }
 
-            List<String> spaces = new ArrayList<>();
-            String wiki = spaceListMatch.group(1);
-            String expectedSpace = FSDirUtils.getSpaceFromPathPart(spaceListMatch.group(2));
-
-            String spacesRestURL = command.url() + "/rest/wikis/" + Utils.encodeURLPart(wiki) + "/spaces";
-            Element spacesRoot = getRootOfRestDocument(spacesRestURL);
-            for (Node node : spacesRoot.selectNodes("/xwiki:spaces/xwiki:space")) {
-                String id = node.selectSingleNode("xwiki:id").getText();
-                String name = node.selectSingleNode("xwiki:name").getText();
-                if (expectedSpace.isEmpty()) {
-                    if (Objects.equals(id, wiki + ':' + name)) {
-                        spaces.add(name);
-                    }
-                } else if (id.equals(wiki + ':' + expectedSpace + '.' + name)) {
+    private String[] listSpaces(FSPath fsPath) throws DocException
+    {
+        List<String> spaces = new ArrayList<>();
+        String wiki = fsPath.getWiki();
+        String expectedSpace = fsPath.getSpaceReference();
+
+        String spacesRestURL = command.url() + URL_PART_REST_WIKIS + Utils.encodeURLPart(wiki) + "/spaces";
+        Element spacesRoot = getRootOfRestDocument(spacesRestURL);
+        for (Node node : spacesRoot.selectNodes("/xwiki:spaces/xwiki:space")) {
+            String id = node.selectSingleNode("xwiki:id").getText();
+            String name = node.selectSingleNode(XPATH_NAME).getText();
+            if (expectedSpace.isEmpty()) {
+                if (Objects.equals(id, wiki + ':' + name)) {
                     spaces.add(name);
                 }
+            } else if (id.equals(wiki + ':' + expectedSpace + '.' + name)) {
+                spaces.add(name);
             }
-            return spaces.toArray(new String[0]);
         }
+        return cacheDirectories(fsPath, spaces.toArray(new String[0]));
+    }
 
-        // Match contents of the root of the wiki directory of every wiki
-        if (WIKI_DIRECTORY_CONTENTS_PATTERN.matcher(path).matches()) {
-            return new String[] { DIR_NAME_SPACES, "classes"/*, "wiki.xml"*/ };
-        }
+    private String[] listClasses(FSPath fsPath) throws DocException
+    {
+        return getRootOfRestDocument(getRestURL(fsPath.getPath()))
+            .selectNodes("/xwiki:classes/xwiki:class/xwiki:id")
+            .stream()
+            .map(Node::getText)
+            .toArray(String[]::new);
+    }
 
-        // Match pattern: /^/wikis/(?:[^/]+)/classes$/
-        if (CLASSES_PATTERN.matcher(path).matches()) {
-            String classesRestURL = command.url() + URL_PART_REST + FSDirUtils.escapeURLWithSlashes(path);
-            return getRootOfRestDocument(classesRestURL)
-                .selectNodes("/xwiki:classes/xwiki:class/xwiki:id")
-                .stream()
-                .map(Node::getText)
-                .toArray(String[]::new);
-        }
+    private String[] listPages(FSPath fsPath) throws DocException
+    {
+        Element root = getRootOfRestDocument(getRestURL(fsPath.getPath()));
+        return cacheDirectories(fsPath, root.selectNodes("/xwiki:pages/xwiki:pageSummary/xwiki:name")
+            .stream()
+            .map(Node::getText)
+            .toArray(String[]::new));
+    }
 
-        if (SPACE_CONTENT_PATTERN.matcher(path).matches()) {
-            return new String[] { DIR_NAME_SPACES, DIR_NAME_PAGES/*, "space.xml"*/ };
-        }
+    private String[] listAttachments(FSPath fsPath) throws DocException
+    {
+        Element root = getRootOfRestDocument(getRestURL(fsPath.getPath()));
+        cacheAttachmentSizes(fsPath.getPath(), root);
+        return root.selectNodes(XPATH_ATTACHMENT + SLASH + XPATH_NAME)
+            .stream()
+            .map(Node::getText)
+            .toArray(String[]::new);
+    }
 
-        if (PAGES_DIRECTORY_PATTERN.matcher(path).matches()) {
-            if (onlyTestIfExists) {
-                return null;
-            }
-            String pagesRestURL = command.url() + URL_PART_REST + FSDirUtils.escapeURLWithSlashes(path);
-            Element root = getRootOfRestDocument(pagesRestURL);
-            return root.selectNodes("/xwiki:pages/xwiki:pageSummary/xwiki:name")
-                .stream()
-                .map(Node::getText)
-                .toArray(String[]::new);
-        }
+    private String[] listObjectClasses(FSPath fsPath) throws DocException
+    {
+        Element root = getRootOfRestDocument(getRestURL(fsPath.getPath()));
+        return cacheDirectories(fsPath, root.selectNodes("/xwiki:objects/xwiki:objectSummary/xwiki:className")
+            .stream()
+            .map(Node::getText)
+            .distinct()
+            .toArray(String[]::new));
+    }
 
-        if (SINGLE_PAGE_DIRECTORY_PATTERN.matcher(path).matches()) {
-            return new String[] { "attachments", "class", "objects", /*"page.xml", */DIR_NAME_CONTENT, "content.xwiki",
-                "title" };
-        }
+    private String[] listObjectNumbers(FSPath fsPath) throws DocException
+    {
+        Element root = getRootOfRestDocument(getRestURL(fsPath.getParentPath()));
+        return cacheDirectories(fsPath, root.selectNodes(
+                String.format("/xwiki:objects/xwiki:objectSummary[xwiki:className/text() = %s]/xwiki:number",
+                    Utils.escapeXPathString(fsPath.getObjectClass())))
+            .stream()
+            .map(Node::getText)
+            .toArray(String[]::new));
+    }
 
-        if (ATTACHMENTS_DIRECTORY_PATTERN.matcher(path).matches()) {
-            if (onlyTestIfExists) {
-                return null;
+    private String[] listObjectProperties(FSPath fsPath) throws DocException
+    {
+        List<String> properties = new ArrayList<>();
+        Element root = getRootOfRestDocument(getRestURL(fsPath.getParentPath()));
+        String className = fsPath.getObjectClass();
+        for (Node node : root.selectNodes("/xwiki:object/xwiki:property")) {
+            String name = ((Element) node).attributeValue("name");
+            cachePropertySize(fsPath.getPath() + SLASH + name, node);
+
+            String link = getPropertyLink(root, className, name);
+            if (link != null) {
+                properties.add(link);
             }
-            String attachmentsRestURL = command.url() + URL_PART_REST + FSDirUtils.escapeURLWithSlashes(path);
-            Element root = getRootOfRestDocument(attachmentsRestURL);
-            return root.selectNodes("/xwiki:attachments/xwiki:attachment/xwiki:name")
-                .stream()
-                .map(Node::getText)
-                .toArray(String[]::new);
-        }
 
-        if (SINGLE_CLASS_DIRECTORY_PATTERN.matcher(path).matches()) {
-            return new String[] {/*"class.xml", */DIR_NAME_PROPERTIES };
+            properties.add(name);
         }
 
-        if (OBJECTS_DIRECTORY_PATTERN.matcher(path).matches()) {
-            if (onlyTestIfExists) {
-                return null;
+        return properties.toArray(new String[0]);
+    }
+
+    private String getPropertyLink(Element object, String className, String name)
+    {
+        // TODO use the Utils.getScriptLangFromObjectInfo(...) method instead
+        if (name.equals("code")) {
+            if (className.equals("XWiki.StyleSheetExtension")) {
+                return name + ".less";
+            } else if (className.equals("XWiki.JavaScriptExtension")) {
+                return name + ".js";
+            }
+        } else if (name.equals("script_content") && className.equals("XWiki.ScriptComponentClass")) {
+            Node scriptLanguage = object.selectSingleNode(
+                "/xwiki:object/xwiki:property[@name = 'script_language']/xwiki:value");
+            if (scriptLanguage != null) {
+                return name + '.' + extFromLanguageName(scriptLanguage.getText());
             }
-            String objectsRestURL = command.url() + URL_PART_REST + FSDirUtils.escapeURLWithSlashes(path);
-            Element root = getRootOfRestDocument(objectsRestURL);
-            return root.selectNodes("/xwiki:objects/xwiki:objectSummary/xwiki:className")
-                .stream()
-                .map(Node::getText)
-                .distinct()
-                .toArray(String[]::new);
-        }
-
-        Matcher objectInstancesMatcher = OBJECT_INSTANCES_PATTERN.matcher(path);
-        if (objectInstancesMatcher.matches()) {
-            if (onlyTestIfExists) {
-                return null;
+        } else if (name.equals(DIR_NAME_CONTENT) && className.equals("XWiki.XWikiSkinFileOverrideClass")) {
+            Node templatePath = object.selectSingleNode(
+                "/xwiki:object/xwiki:property[@name = 'path']/xwiki:value");
+            if (templatePath != null) {
+                return name + ".vm";
             }
-            String objectsRestURL =
-                command.url() + URL_PART_REST + FSDirUtils.escapeURLWithSlashes(objectInstancesMatcher.group(1));
-            Element root = getRootOfRestDocument(objectsRestURL);
-            return root.selectNodes(
-                    String.format("/xwiki:objects/xwiki:objectSummary[xwiki:className/text() = %s]/xwiki:number",
-                        Utils.escapeXPathString(objectInstancesMatcher.group(2))))
-                .stream()
-                .map(Node::getText)
-                .toArray(String[]::new);
         }
+        return null;
+    }
 
-        if (OBJECT_CONTENT_PATTERN.matcher(path).matches()) {
-            return new String[] { DIR_NAME_PROPERTIES/*, "object.xml"*/ };
+    private String[] listClassProperties(FSPath fsPath) throws DocException
+    {
+        Element root = getRootOfRestDocument(getClassRestURL(fsPath));
+        return cacheDirectories(fsPath, root.selectNodes("/xwiki:class/xwiki:property/@name")
+            .stream()
+            .map(Node::getText)
+            .toArray(String[]::new));
+    }
+
+    private String[] listClassAttributes(FSPath fsPath) throws DocException
+    {
+        Element root = getRootOfRestDocument(getClassRestURL(fsPath));
+        Element property = (Element) root.selectSingleNode(String.format("/xwiki:class/xwiki:property[name = %s]",
+            Utils.escapeXPathString(fsPath.getName())));
+        if (property == null) {
+            throw new DocException(ERROR_UNKNOWN_DIRECTORY);
         }
 
-        Matcher propertiesDirectoryMatcher = PROPERTIES_DIRECTORY_PATTERN.matcher(path);
-        if (propertiesDirectoryMatcher.matches()) {
-            if (onlyTestIfExists) {
-                return null;
-            }
-            List<String> properties = new ArrayList<>();
-            String objectRestURL =
-                command.url() + URL_PART_REST + FSDirUtils.escapeURLWithSlashes(propertiesDirectoryMatcher.group(1));
-            Element root = getRootOfRestDocument(objectRestURL);
-            for (Node node : root.selectNodes("/xwiki:object/xwiki:property/@name")) {
-                String name = node.getText();
-                String className = propertiesDirectoryMatcher.group(2);
-
-                // TODO use the Utils.getScriptLangFromObjectInfo(...) method instead
-                if (name.equals("code")) {
-                    if (className.equals("XWiki.StyleSheetExtension")) {
-                        properties.add(name + ".less");
-                    } else if (className.equals("XWiki.JavaScriptExtension")) {
-                        properties.add(name + ".js");
-                    }
-                } else if (name.equals("script_content") && className.equals("XWiki.ScriptComponentClass")) {
-                    Node scriptLanguage = root.selectSingleNode(
-                        "/xwiki:object/xwiki:property[@name = 'script_language']/xwiki:value");
-                    if (scriptLanguage != null) {
-                        properties.add(name + '.' + extFromLanguageName(scriptLanguage.getText()));
-                    }
-                } else if (name.equals(DIR_NAME_CONTENT) && className.equals("XWiki.XWikiSkinFileOverrideClass")) {
-                    Node templatePath = root.selectSingleNode(
-                        "/xwiki:object/xwiki:property[@name = 'path']/xwiki:value");
-                    if (templatePath != null) {
-                        properties.add(name + ".vm");
-                    }
-                }
+        List<String> attributes = new ArrayList<>();
 
-                properties.add(name);
+        for (Node attributeName : property.selectNodes("./attribute/@name")) {
+            String name = attributeName.getStringValue();
+            attributes.add(name);
+            if (name.equals("customDisplay")) {
+                attributes.add(name + ".xwiki");
             }
-
-            return properties.toArray(new String[0]);
         }
 
-        Matcher matcher = CLASS_PROPERTIES_MATCHER.matcher(path);
-        if (matcher.matches()) {
-            if (onlyTestIfExists) {
-                return null;
-            }
-            String fullName = FSDirUtils.getSpaceFromPathPart(matcher.group(2)) + '.' + matcher.group(3);
-            Element root = getRootOfRestDocument(command.url() + URL_PART_REST
-                + FSDirUtils.escapeURLWithSlashes(matcher.group(1)) + URL_PART_CLASSES + Utils.encodeURLPart(fullName));
-            return root.selectNodes("/xwiki:class/xwiki:property/@name")
-                .stream()
-                .map(Node::getText)
-                .toArray(String[]::new);
-        }
-
-        matcher = CLASS_PROPERTY_MATCHER.matcher(path);
-        if (matcher.find()) {
-            String fullName = FSDirUtils.getSpaceFromPathPart(matcher.group(2)) + '.' + matcher.group(3);
-            Element root = getRootOfRestDocument(command.url() + URL_PART_REST
-                + FSDirUtils.escapeURLWithSlashes(matcher.group(1)) + URL_PART_CLASSES + Utils.encodeURLPart(fullName));
-            Element property = (Element) root.selectSingleNode(String.format("/xwiki:class/xwiki:property[name = %s]",
-                Utils.escapeXPathString(matcher.group(4))));
-            if (property != null) {
-                if (onlyTestIfExists) {
-                    return null;
-                }
-
-                List<String> attributes = new ArrayList<>();
-
-                for (Node attributeName : property.selectNodes("./attribute/@name")) {
-                    String name = attributeName.getStringValue();
-                    attributes.add(name);
-                    if (name.equals("customDisplay")) {
-                        attributes.add(name + ".xwiki");
-                    }
-                }
+        return attributes.toArray(new String[0]);
+    }
 
-                return attributes.toArray(new String[0]);
+    @Override
+    public int open(String path, FuseFileInfo fi)
+    {
+        FSFileHandles.OpenFile file = new FSFileHandles.OpenFile(path);
+        int flags = fi.flags.get();
+        if ((flags & OpenFlags.O_ACCMODE.intValue()) != OpenFlags.O_RDONLY.intValue()
+            && (flags & OpenFlags.O_TRUNC.intValue()) == 0) {
+            // Fail now rather than on the first write if the content the writes go into can't be fetched.
+            int loaded = load(file);
+            if (loaded != 0) {
+                return loaded;
             }
         }
-
-        throw new DocException("Unknown directory");
+        fi.fh.set(fileHandles.add(file));
+        return 0;
     }
 
     @Override
-    public int open(String path, FuseFileInfo fi)
+    public int create(String path, long mode, FuseFileInfo fi)
     {
+        // Only attachments can be added, the other files of a page always exist.
+        if (FSPath.parse(path).getType() != FSPath.Type.ATTACHMENT) {
+            return -ErrorCodes.EACCES();
+        }
+
+        // The file is empty and dirty, so it is created on the wiki when flushed even if nothing is written in it.
+        FSFileHandles.OpenFile file = new FSFileHandles.OpenFile(path);
+        file.truncate(0);
+        fi.fh.set(fileHandles.add(file));
         return 0;
     }
 
     @Override
     public int read(String path, Pointer buf, long size, long offset, FuseFileInfo fi)
     {
-        byte[] value = getValue(path);
+        FSFileHandles.OpenFile file = fileHandles.get(fi.fh.get());
+        if (file != null && file.isLoaded()) {
+            return file.read(buf, size, offset);
+        }
+
+        FSPath fsPath = FSPath.parse(path);
+        if (fsPath.getType() == FSPath.Type.ATTACHMENT) {
+            return readAttachment(fsPath, buf, size, offset);
+        }
+
+        byte[] value = getValue(fsPath);
         if (value == null) {
             return -ErrorCodes.ENOENT();
         }
+        attributeCache.putFile(path, value.length);
 
         if (offset < value.length) {
             int sizeToWrite = (int) Math.min(size, value.length - offset);
@@ -457,39 +479,127 @@ class XWikiFS extends FuseStubFS
     @Override
     public int write(String path, Pointer buf, long size, long offset, FuseFileInfo fi)
     {
-        byte[] content = getValue(path);
+        FSFileHandles.OpenFile file = fileHandles.get(fi.fh.get());
+        if (file == null) {
+            return -ErrorCodes.EBADF();
+        }
 
-        if (content == null) {
-            return -ErrorCodes.ENOENT();
+        if (offset + size > Integer.MAX_VALUE) {
+            return -ErrorCodes.EFBIG();
         }
 
-        // Remove the part of the old content after the offset if there is any.
-        if (offset < content.length) {
-            content = Arrays.copyOf(content, (int) offset);
+        int loaded = load(file);
+        if (loaded != 0) {
+            return loaded;
         }
 
-        // Append the new content.
-        byte[] newContent = new byte[(int) (offset + size)];
-        System.arraycopy(content, 0, newContent, 0, content.length);
-        buf.get(0, newContent, (int) offset, (int) size);
-        int bytesWritten = putValue(path, newContent);
-        return Math.min(bytesWritten, (int) size);
+        // The page is only saved when the file is flushed.
+        file.write(buf, (int) size, (int) offset);
+        return (int) size;
     }
 
     @Override
     public int truncate(String path, long size)
     {
-        byte[] content = getValue(path);
+        // The changes of a file being written are in its buffer, the size of which has to change instead.
+        FSFileHandles.OpenFile openFile = fileHandles.getDirty(path);
+        if (openFile != null) {
+            return truncate(openFile, size);
+        }
+
+        FSPath fsPath = FSPath.parse(path);
+        byte[] content = getValue(fsPath);
         if (content == null) {
             return -ErrorCodes.ENOENT();
         }
 
         if (size < content.length) {
             byte[] newContent = Arrays.copyOf(content, (int) size);
-            return putValue(path, newContent);
+            if (putValue(fsPath, newContent) != newContent.length) {
+                return -ErrorCodes.EIO();
+            }
+        }
+
+        return 0;
+    }
+
+    @Override
+    public int ftruncate(String path, long size, FuseFileInfo fi)
+    {
+        FSFileHandles.OpenFile file = fileHandles.get(fi.fh.get());
+        return file == null ? truncate(path, size) : truncate(file, size);
+    }
+
+    private int truncate(FSFileHandles.OpenFile file, long size)
+    {
+        if (size > Integer.MAX_VALUE) {
+            return -ErrorCodes.EFBIG();
         }
 
-        return content.length;
+        // Opening a file with O_TRUNC ends up here, and doesn't need its current content.
+        if (size > 0) {
+            int loaded = load(file);
+            if (loaded != 0) {
+                return loaded;
+            }
+        }
+
+        file.truncate((int) size);
+        return 0;
+    }
+
+    @Override
+    public int flush(String path, FuseFileInfo fi)
+    {
+        FSFileHandles.OpenFile file = fileHandles.get(fi.fh.get());
+        return file == null ? 0 : save(file);
+    }
+
+    @Override
+    public int fsync(String path, int isdatasync, FuseFileInfo fi)
+    {
+        return flush(path, fi);
+    }
+
+    @Override
+    public int release(String path, FuseFileInfo fi)
+    {
+        FSFileHandles.OpenFile file = fileHandles.remove(fi.fh.get());
+        return file == null ? 0 : save(file);
+    }
+
+    /**
+     * Fill the buffer of an open file with the current content of the file, unless it was already. An empty buffer
+     * would replace the content when saved, so it is never loaded when the content can't be fetched.
+     *
+     * @return 0, or the error code to return if the content can't be fetched.
+     */
+    private int load(FSFileHandles.OpenFile file)
+    {
+        if (file.isLoaded()) {
+            return 0;
+        }
+
+        try {
+            byte[] content = fetchValue(FSPath.parse(file.getPath()));
+            if (content == null) {
+                return -ErrorCodes.ENOENT();
+            }
+            file.load(content);
+            return 0;
+        } catch (DocException | IOException e) {
+            if (command.debug()) {
+                e.printStackTrace();
+            }
+            return -ErrorCodes.EIO();
+        }
+    }
+
+    private int save(FSFileHandles.OpenFile file)
+    {
+        FSPath fsPath = FSPath.parse(file.getPath());
+        boolean saved = file.flush(content -> putValue(fsPath, content) == content.length);
+        return saved ? 0 : -ErrorCodes.EIO();
     }
 
     private String pageToSpacesAndPagesRESTURLPart(String page)
@@ -517,112 +627,109 @@ class XWikiFS extends FuseStubFS
 
     private Element getRootOfRestDocument(String wikisRestURL) throws DocException
     {
-        String s = Utils.httpGet(this.command, wikisRestURL).body();
-        return Utils.parseXML(s).getRootElement();
+        return Utils.httpGetXML(this.command, wikisRestURL).getRootElement();
     }
 
-    private byte[] getValue(String path)
+    private String getRestURL(String path)
     {
-        Pattern pagePattern = PAGES_PATTERN_MATCHER;
-        Matcher pageMatcher = pagePattern.matcher(path);
-        if (pageMatcher.find()) {
-            String space = FSDirUtils.getSpaceFromPathPart(pageMatcher.group(2));
-            String page = pageMatcher.group(3).replace(DOT, ESCAPED_DOT);
-
-            try {
-                MultipleDoc document = new MultipleDoc(command, pageMatcher.group(1), space + '.' + page);
-
-                String remainingPath = path.substring(pageMatcher.end());
-
-                Pattern propertyPattern = OBJECTS_PROPERTIES_PATTERN_MATCHER;
-                Matcher propertyMatcher = propertyPattern.matcher(remainingPath);
-                if (propertyMatcher.matches()) {
-                    String className = propertyMatcher.group(1);
-                    String objectNumber = propertyMatcher.group(2);
-                    String propertyName = propertyMatcher.group(3);
-
-                    return document.getValue(className, objectNumber, propertyName).orElse("")
-                        .getBytes(StandardCharsets.UTF_8);
-                }
+        return command.url() + URL_PART_REST + FSDirUtils.escapeURLWithSlashes(path);
+    }
 
-                if (remainingPath.equals(URL_PART_CONTENT)) {
-                    return document.getContent().getBytes(StandardCharsets.UTF_8);
-                }
+    private String getClassRestURL(FSPath fsPath)
+    {
+        return command.url() + URL_PART_REST_WIKIS + Utils.encodeURLPart(fsPath.getWiki()) + URL_PART_CLASSES
+            + Utils.encodeURLPart(fsPath.getPageReference());
+    }
 
-                if (remainingPath.equals(URL_PART_TITLE)) {
-                    return document.getTitle().getBytes(StandardCharsets.UTF_8);
-                }
+    private int readAttachment(FSPath fsPath, Pointer buf, long size, long offset)
+    {
+        try {
+            byte[] value = pageCache.readConcurrently(fsPath.getPagePath(), () -> loadPage(fsPath),
+                document -> document.getAttachment(fsPath.getName(), offset, (int) Math.min(size, Integer.MAX_VALUE)));
+            if (value == null) {
+                return -ErrorCodes.ENOENT();
+            }
 
-                /*
-                Pattern classPropertyPattern = Pattern.compile("^/class/properties/([^/]+)/([^/]+)$");
-                Matcher classPropertyMatcher = classPropertyPattern.matcher(path);
-                if (classPropertyMatcher.matches()) {
-                    String propertyName = classPropertyMatcher.group(1);
-                    String attributeName = classPropertyMatcher.group(2);
+            buf.put(0, value, 0, value.length);
+            return value.length;
+        } catch (DocException | IOException e) {
+            if (command.debug()) {
+                e.printStackTrace();
+            }
+            return -ErrorCodes.EIO();
+        }
+    }
 
-                    return document.getClassAttribute(propertyName, attributeName).getBytes(StandardCharsets.UTF_8);
-                }
-                */
+    private MultipleDoc loadPage(FSPath fsPath) throws DocException, IOException
+    {
+        return new MultipleDoc(command, fsPath.getWiki(), fsPath.getPageReference(), Projection.PAGE);
+    }
 
-                Pattern attachmentPattern = ATTACHMENTS_PATTERN_MATCHER;
-                Matcher attachmentMatcher = attachmentPattern.matcher(remainingPath);
-                if (attachmentMatcher.matches()) {
-                    String attachmentName = attachmentMatcher.group(1);
-                    return document.getAttachment(attachmentName);
-                }
-            } catch (DocException | IOException e) {
-                if (command.debug()) {
-                    e.printStackTrace();
-                }
+    private byte[] getValue(FSPath fsPath)
+    {
+        try {
+            return fetchValue(fsPath);
+        } catch (DocException | IOException e) {
+            if (command.debug()) {
+                e.printStackTrace();
             }
         }
 
         return new byte[0];
     }
 
-    private int putValue(String path, byte[] value)
+    /**
+     * @return the current value of the file, null if it doesn't exist.
+     */
+    private byte[] fetchValue(FSPath fsPath) throws DocException, IOException
     {
-        Matcher pageMatcher = PAGES_PATTERN_MATCHER.matcher(path);
-        if (pageMatcher.find()) {
-
-            String space = FSDirUtils.getSpaceFromPathPart(pageMatcher.group(2));
-            String page = pageMatcher.group(3).replace(DOT, ESCAPED_DOT);
-
-            try {
-                MultipleDoc document = new MultipleDoc(this.command, pageMatcher.group(1), space + '.' + page);
-
-                String remainingPath = path.substring(pageMatcher.end());
+        if (fsPath.isInPage()) {
+            return pageCache.getValue(fsPath.getPagePath(), fsPath.getPath(), () -> loadPage(fsPath),
+                document -> readValue(document, fsPath));
+        }
 
-                Matcher propertyMatcher = OBJECTS_PROPERTIES_PATTERN_MATCHER.matcher(remainingPath);
-                if (propertyMatcher.matches()) {
-                    String className = propertyMatcher.group(1);
-                    String objectNumber = propertyMatcher.group(2);
-                    String propertyName = propertyMatcher.group(3);
-                    String stringValue = new String(value, StandardCharsets.UTF_8);
+        return new byte[0];
+    }
 
-                    document.setValue(className, objectNumber, propertyName, stringValue);
-                    document.save();
-                    return value.length;
-                }
+    private static byte[] readValue(MultipleDoc document, FSPath fsPath) throws DocException, IOException
+    {
+        return switch (fsPath.getType()) {
+            case OBJECT_PROPERTY -> document.getValue(fsPath.getObjectClass(), fsPath.getObjectNumber(),
+                fsPath.getName()).orElse("").getBytes(StandardCharsets.UTF_8);
+            case CONTENT -> document.getContent().getBytes(StandardCharsets.UTF_8);
+            case TITLE -> document.getTitle().getBytes(StandardCharsets.UTF_8);
+            case ATTACHMENT -> document.getAttachment(fsPath.getName());
+            // Class attributes can't be read from documents yet.
+            default -> new byte[0];
+        };
+    }
 
-                if (remainingPath.equals(URL_PART_CONTENT) || remainingPath.equals(URL_PART_TITLE)) {
-                    String stringValue = new String(value, StandardCharsets.UTF_8);
+    private void cachePropertySize(String propertyPath, Node property)
+    {
+        Node value = property.selectSingleNode("xwiki:value");
+        if (value != null) {
+            attributeCache.putFile(propertyPath, value.getText().getBytes(StandardCharsets.UTF_8).length);
+        }
+    }
 
-                    if (remainingPath.equals(URL_PART_TITLE)) {
-                        document.setTitle(stringValue.stripTrailing());
-                    } else {
-                        document.setContent(stringValue);
-                    }
-                    document.save();
-                    return value.length;
-                }
+    private int putValue(FSPath fsPath, byte[] value)
+    {
+        try {
+            return saveValue(fsPath, value);
+        } finally {
+            attributeCache.invalidate(fsPath.getPath());
+            if (fsPath.isInPage()) {
+                directoryCache.invalidatePage(fsPath.getPagePath());
+            }
+        }
+    }
 
-                Matcher attachmentMatcher = ATTACHMENTS_PATTERN_MATCHER.matcher(remainingPath);
-                if (attachmentMatcher.matches()) {
-                    String attachmentName = attachmentMatcher.group(1);
-                    document.setAttachment(attachmentName, value);
-                    return value.length;
-                }
+    private int saveValue(FSPath fsPath, byte[] value)
+    {
+        if (fsPath.isInPage()) {
+            try {
+                return pageCache.write(fsPath.getPagePath(), () -> loadPage(fsPath),
+                    document -> writeValue(document, fsPath, value));
             } catch (DocException | IOException e) {
                 if (command.debug()) {
                     e.printStackTrace();
@@ -632,4 +739,26 @@ class XWikiFS extends FuseStubFS
 
         return 0;
     }
+
+    private static int writeValue(MultipleDoc document, FSPath fsPath, byte[] value)
+        throws DocException, IOException
+    {
+        if (fsPath.getType() == FSPath.Type.ATTACHMENT) {
+            document.setAttachment(fsPath.getName(), value);
+            return value.length;
+        }
+
+        String stringValue = new String(value, StandardCharsets.UTF_8);
+        switch (fsPath.getType()) {
+            case OBJECT_PROPERTY -> document.setValue(fsPath.getObjectClass(), fsPath.getObjectNumber(),
+                fsPath.getName(), stringValue);
+            case CONTENT -> document.setContent(stringValue);
+            case TITLE -> document.setTitle(stringValue.stripTrailing());
+            default -> {
+                return 0;
+            }
+        }
+        document.save();
+        return value.length;
+    }
 }
@@ -20,11 +20,16 @@
 
 package org.xwiki.contrib.cli.document;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import org.dom4j.Document;
 import org.dom4j.Element;
@@ -52,23 +57,25 @@ abstract class AbstractXMLDoc
 
     protected static final String NODE_NAME_OBJECT = "object";
 
-    protected static final String NODE_XWIKI_SPACE = "xwiki:";
-
     protected static final String NODE_NAME = "name";
 
     protected static final String NODE_NAME_PROPERTY = "property";
 
+    protected static final String NODE_NAME_VALUE = "value";
+
     protected static final String NODE_NAME_ATTACHMENT = "attachment";
 
     protected static final String LINE = "\n-----\n";
 
+    protected static final String XPATH_REFERENCE = "//xwikidoc/@reference";
+
     protected static final String XPATH_REST_OBJECT = "xwiki:objects/xwiki:objectSummary";
 
     protected static final String XPATH_REST_ATTACHMENT = "xwiki:attachments/xwiki:attachment";
 
-    protected static final String XPATH_REST_PROPERTY_NAME = "xwiki:property[@name = '%s']/xwiki:value";
+    protected static final String XPATH_REST_PROPERTY_NAME = "xwiki:property[@name = $name]/xwiki:value";
 
-    protected static final String XPATH_XML_PROPERTY = "property/%s";
+    private static final Set<String> FIELDS = Set.of(NODE_NAME_CONTENT, NODE_NAME_TITLE, NODE_NAME_SYNTAX_ID);
 
     protected final Command cmd;
 
@@ -78,6 +85,19 @@ abstract class AbstractXMLDoc
 
     private boolean fromRest;
 
+    /**
+     * The file to parse the document from when it is first needed, null if there is none or it was already parsed.
+     */
+    private Path xmlFile;
+
+    private ObjectIndex objectIndex;
+
+    /**
+     * The fields read from {@link #xml} or {@link #xmlFile} without parsing them into a DOM, null if they were not read
+     * yet or couldn't be.
+     */
+    private Map<String, String> fields;
+
     AbstractXMLDoc(Command cmd)
     {
         this.cmd = cmd;
@@ -85,13 +105,7 @@ abstract class AbstractXMLDoc
 
     public String getContent() throws DocException
     {
-        var domdoc = getDom();
-        var root = (Element) domdoc.getRootElement();
-        var content = (Element) getElement(root, NODE_NAME_CONTENT);
-        if (content == null) {
-            return null;
-        }
-        return content.getText();
+        return getField(NODE_NAME_CONTENT);
     }
 
     public void setContent(String str) throws DocException
@@ -107,18 +121,13 @@ abstract class AbstractXMLDoc
         }
 
         content.setText(str);
+        changed(content);
         xml = null;
     }
 
     public String getTitle() throws DocException
     {
-        var domdoc = getDom();
-        var root = (Element) domdoc.getRootElement();
-        var title = (Element) getElement(root, NODE_NAME_TITLE);
-        if (title == null) {
-            return null;
-        }
-        return title.getText();
+        return getField(NODE_NAME_TITLE);
     }
 
     public void setTitle(String str) throws DocException
@@ -134,47 +143,28 @@ abstract class AbstractXMLDoc
         }
 
         title.setText(str);
+        changed(title);
         xml = null;
     }
 
     public String getSyntaxId() throws DocException
     {
-        var domdoc = getDom();
-        var root = (Element) domdoc.getRootElement();
-        var syntaxId = (Element) getElement(root, NODE_NAME_SYNTAX_ID);
-        if (syntaxId == null) {
-            return null;
-        }
-        return syntaxId.getText();
+        return getField(NODE_NAME_SYNTAX_ID);
     }
 
     public Optional<ObjectInfo> getObjectSpec(String objectClass, String objectNumber, String property)
         throws DocException
     {
-        var domdoc = getDom();
-
-        if (domdoc == null) {
-            throw new DocumentNotFoundException();
-        }
+        var index = getObjectIndex();
 
         if (property == null) {
             throw new DocException("property is null. getObjectSpec expects a property.");
         }
 
-        var root = domdoc.getRootElement();
-        var objects = root.selectNodes(fromRest ? XPATH_REST_OBJECT : NODE_NAME_OBJECT);
-        for (var object : objects) {
-            if (!objectMatchesFilter(object, objectClass, objectNumber)) {
-                continue;
-            }
-
-            var propertyElement = object.selectSingleNode(
-                fromRest ? String.format(XPATH_REST_PROPERTY_NAME, property)
-                    : String.format(XPATH_XML_PROPERTY, property));
-            if (propertyElement == null) {
-                continue;
+        for (var object : index.find(objectClass, objectNumber)) {
+            if (object.values().containsKey(property)) {
+                return getObjectSpec(object.element());
             }
-            return getObjectSpec((Element) object);
         }
 
         throw new DocException(
@@ -185,28 +175,11 @@ abstract class AbstractXMLDoc
     public Collection<ObjectInfo> getObjects(String objectClass, String objectNumber, String property)
         throws DocException
     {
-        var domdoc = getDom();
-
-        if (domdoc == null) {
-            throw new DocumentNotFoundException();
-        }
-
-        var root = domdoc.getRootElement();
-        var objects = root.selectNodes(fromRest ? XPATH_REST_OBJECT : NODE_NAME_OBJECT);
         var objs = new ArrayList<ObjectInfo>();
-        for (var object : objects) {
-            if (!objectMatchesFilter(object, objectClass, objectNumber)) {
-                continue;
+        for (var object : getObjectIndex().find(objectClass, objectNumber)) {
+            if (property == null || object.values().containsKey(property)) {
+                getObjectSpec(object.element()).ifPresent(objs::add);
             }
-            if (property != null) {
-                var propertyElement = object.selectSingleNode(
-                    fromRest ? String.format(XPATH_REST_PROPERTY_NAME, property)
-                        : String.format(XPATH_XML_PROPERTY, property));
-                if (propertyElement == null) {
-                    continue;
-                }
-            }
-            getObjectSpec((Element) object).ifPresent(objs::add);
         }
 
         return objs;
@@ -214,6 +187,7 @@ abstract class AbstractXMLDoc
 
     public Collection<AttachmentInfo> getAttachments() throws DocException
     {
+        load(Projection.ATTACHMENTS);
         var domdoc = getDom();
 
         if (domdoc == null) {
@@ -221,7 +195,7 @@ abstract class AbstractXMLDoc
         }
 
         var root = domdoc.getRootElement();
-        var attachments = root.selectNodes(fromRest ? XPATH_REST_ATTACHMENT : NODE_NAME_ATTACHMENT);
+        var attachments = XPathCache.selectNodes(root, fromRest ? XPATH_REST_ATTACHMENT : NODE_NAME_ATTACHMENT);
         var res = new ArrayList<AttachmentInfo>(attachments.size());
         for (var attachment : attachments) {
             if (fromRest) {
@@ -251,18 +225,69 @@ abstract class AbstractXMLDoc
             throw new DocException("Couln't find this property");
         }
         propertyElement.get().setText(value);
+        changed(propertyElement.get());
     }
 
     public String getReference() throws DocException
     {
-        return getDom().valueOf("//xwikidoc/@reference");
+        return XPathCache.valueOf(getDom(), XPATH_REFERENCE);
+    }
+
+    /**
+     * Make sure the given parts of the document are in its DOM before reading them.
+     *
+     * @param projection the parts of the document about to be read.
+     * @throws DocException if the missing parts can't be loaded.
+     */
+    protected void load(Projection projection) throws DocException
+    {
+        // Documents are fully loaded by default.
+    }
+
+    /**
+     * Called once an element of the document has been changed.
+     *
+     * @param element the element whose text was changed.
+     */
+    protected void changed(Element element)
+    {
+        // Documents are saved as a whole by default.
     }
 
     protected void setXML(String str, boolean fromRest)
     {
         this.fromRest = fromRest;
         dom = null;
+        objectIndex = null;
+        fields = null;
         xml = str;
+        xmlFile = null;
+    }
+
+    /**
+     * Parse the document from the given exported XML file when it is first needed. The file is read as bytes, so the
+     * parser decodes it according to its XML declaration and it is never held in memory as a string.
+     *
+     * @param file the XML file.
+     */
+    protected void setXMLFile(Path file)
+    {
+        setXML(null, false);
+        xmlFile = file;
+    }
+
+    protected void setDom(Document dom, boolean fromRest)
+    {
+        this.fromRest = fromRest;
+        this.dom = dom;
+        objectIndex = null;
+        fields = null;
+        xml = null;
+        xmlFile = null;
+
+        if (dom != null && cmd.printXML()) {
+            err.println(LINE + dom.asXML() + LINE);
+        }
     }
 
     protected String getXML()
@@ -292,21 +317,59 @@ abstract class AbstractXMLDoc
             if (cmd.printXML()) {
                 err.println(LINE + xml + LINE);
             }
+
+            // The DOM is the reference from now on.
+            xml = null;
+            objectIndex = null;
+        } else if (dom == null && xmlFile != null) {
+            parseXMLFile();
         }
 
         return dom;
     }
 
-    protected static Element getElement(Element parent, String nodeName)
+    private void parseXMLFile() throws DocException
     {
-        var element = (Element) parent.selectSingleNode(nodeName);
-        if (element == null) {
-            element = (Element) parent.selectSingleNode(NODE_XWIKI_SPACE + nodeName);
+        try (var stream = Files.newInputStream(xmlFile)) {
+            this.dom = Utils.parseXML(stream);
+        } catch (DocException e) {
+            if (cmd.debug()) {
+                err.println("A parse error occured in [" + xmlFile + "].");
+            }
+
+            throw e;
+        } catch (IOException e) {
+            throw new DocException(e);
+        }
+
+        xmlFile = null;
+        // The objects may have been read from the file without the DOM.
+        objectIndex = null;
+        if (cmd.printXML()) {
+            err.println(LINE + dom.asXML() + LINE);
         }
-        return element;
     }
 
-    private Optional<ObjectInfo> getObjectSpec(Element object)
+    /**
+     * @return the object elements of the document, in document order.
+     * @throws DocException if the document can't be read.
+     */
+    protected List<Node> getObjectNodes() throws DocException
+    {
+        var domdoc = getDom();
+        if (domdoc == null) {
+            throw new DocumentNotFoundException();
+        }
+
+        return XPathCache.selectNodes(domdoc.getRootElement(), fromRest ? XPATH_REST_OBJECT : NODE_NAME_OBJECT);
+    }
+
+    protected static Element getElement(Element parent, String nodeName)
+    {
+        return XPathCache.getChild(parent, nodeName);
+    }
+
+    protected Optional<ObjectInfo> getObjectSpec(Element object)
     {
         var classNameElement = getElement(object, NODE_NAME_CLASS_NAME);
         if (classNameElement == null) {
@@ -327,17 +390,17 @@ abstract class AbstractXMLDoc
             return Optional.empty();
         }
 
-        var propertiesElements = getElements(object, NODE_NAME_PROPERTY);
+        var propertiesElements = XPathCache.getChildren(object, NODE_NAME_PROPERTY);
         var properties = new HashMap<String, String>();
         for (var prop : propertiesElements) {
             String propertyName = null;
             Element propertyElement = null;
 
             if (fromRest) {
-                propertyElement = (Element) prop.selectSingleNode("xwiki:value");
-                propertyName = ((Element) prop).attributeValue(NODE_NAME);
+                propertyElement = getElement(prop, NODE_NAME_VALUE);
+                propertyName = prop.attributeValue(NODE_NAME);
             } else {
-                for (var pElement : ((Element) prop).elements()) {
+                for (var pElement : prop.elements()) {
                     propertyName = pElement.getName();
                     propertyElement = pElement;
                 }
@@ -355,70 +418,51 @@ abstract class AbstractXMLDoc
                 .toList()));
     }
 
-    private static List<Node> getElements(Node parent, String nodeName)
+    /**
+     * @return the text of the given child of the root element, read without building the DOM if it isn't already.
+     */
+    private String getField(String name) throws DocException
     {
-        var elements = parent.selectNodes(nodeName);
-        if (elements == null || elements.isEmpty()) {
-            elements = parent.selectNodes(NODE_XWIKI_SPACE + nodeName);
-        }
-        return elements;
-    }
-
-    private boolean objectMatchesFilter(Node object, String objectClass, String objectNumber)
-    {
-        if (objectClass != null) {
-            var classNameElement = getElement((Element) object, NODE_NAME_CLASS_NAME);
-            if (classNameElement == null) {
-                err.println("Couldn't find class name of object");
-                return false;
+        if (dom == null && (xml != null || xmlFile != null) && !cmd.printXML()) {
+            if (fields == null) {
+                fields = xml != null ? XMLFieldScanner.scan(xml, FIELDS) : XMLFieldScanner.scan(xmlFile, FIELDS);
             }
-
-            if (!objectClass.equals(classNameElement.getText())) {
-                return false;
+            if (fields != null) {
+                return fields.get(name);
             }
         }
 
-        if (objectNumber != null) {
-            var numberElement = getElement((Element) object, NODE_NAME_NUMBER);
-            if (numberElement == null) {
-                err.println("Couldn't find class number of object");
-                return false;
-            }
-
-            return objectNumber.equals(numberElement.getText());
+        var domdoc = getDom();
+        var element = getElement(domdoc.getRootElement(), name);
+        if (element == null) {
+            return null;
         }
+        return element.getText();
+    }
 
-        return true;
+    private ObjectIndex getObjectIndex() throws DocException
+    {
+        load(Projection.OBJECTS);
+        if (objectIndex == null) {
+            objectIndex = new ObjectIndex(getObjectNodes(), fromRest);
+        }
+        return objectIndex;
     }
 
-    private Optional<Node> getPropertyValueElement(String objectClass, String objectNumber, String property)
+    private Optional<Element> getPropertyValueElement(String objectClass, String objectNumber, String property)
         throws DocException
     {
-        var domdoc = getDom();
-
-        if (domdoc == null) {
-            throw new DocumentNotFoundException();
-        }
+        var index = getObjectIndex();
 
         if (property == null) {
             throw new DocException("property is null. getValue expects a property.");
         }
 
-        var root = domdoc.getRootElement();
-        var objects = root.selectNodes(fromRest ? XPATH_REST_OBJECT : NODE_NAME_OBJECT);
-        for (var object : objects) {
-            if (!objectMatchesFilter(object, objectClass, objectNumber)) {
-                continue;
-            }
-
-            var propertyElement = object.selectSingleNode(
-                fromRest ? "xwiki:property[@name = '" + property + "']/xwiki:value" : "property/" + property);
-
-            if (propertyElement == null) {
-                continue;
+        for (var object : index.find(objectClass, objectNumber)) {
+            var propertyElement = object.values().get(property);
+            if (propertyElement != null) {
+                return Optional.of(propertyElement);
             }
-
-            return Optional.of(propertyElement);
         }
 
         return Optional.empty();
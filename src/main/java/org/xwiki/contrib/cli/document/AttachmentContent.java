@@ -0,0 +1,106 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli.document;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * The content of an attachment of an XML file which is kept out of the DOM. It is decoded when read and encoded to
+ * base64 while the file is written, so large attachments never have to be held in memory.
+ *
+ * @version $Id$
+ */
+interface AttachmentContent
+{
+    /**
+     * Number of bytes encoded at once. It is a multiple of 3 so that only the last chunk is padded.
+     */
+    int CHUNK_SIZE = 3 * 16 * 1024;
+
+    /**
+     * @return a stream reading the decoded content, to be closed once read.
+     * @throws IOException if the content can't be read.
+     */
+    InputStream open() throws IOException;
+
+    /**
+     * @param writer where to write the content, base64 encoded.
+     * @throws IOException if the content can't be read or written.
+     */
+    void writeBase64(Writer writer) throws IOException;
+
+    /**
+     * @param file the file holding the content.
+     * @return the content of the given file, read when it is needed.
+     */
+    static AttachmentContent of(Path file)
+    {
+        return new FileContent(file);
+    }
+
+    /**
+     * Encode a stream to base64 chunk by chunk.
+     *
+     * @param in the stream to encode.
+     * @param writer where to write the encoded content.
+     * @throws IOException if the content can't be read or written.
+     */
+    static void writeBase64(InputStream in, Writer writer) throws IOException
+    {
+        var encoder = Base64.getEncoder();
+        var chunk = new byte[CHUNK_SIZE];
+        var count = in.readNBytes(chunk, 0, CHUNK_SIZE);
+        while (count > 0) {
+            var bytes = count == CHUNK_SIZE ? chunk : Arrays.copyOf(chunk, count);
+            writer.write(new String(encoder.encode(bytes), StandardCharsets.US_ASCII));
+            count = in.readNBytes(chunk, 0, CHUNK_SIZE);
+        }
+    }
+
+    /**
+     * The content of a file which is not part of the XML file.
+     *
+     * @param file the file holding the content.
+     */
+    record FileContent(Path file) implements AttachmentContent
+    {
+        @Override
+        public InputStream open() throws IOException
+        {
+            return Files.newInputStream(file);
+        }
+
+        @Override
+        public void writeBase64(Writer writer) throws IOException
+        {
+            try (var in = open()) {
+                AttachmentContent.writeBase64(in, writer);
+            }
+        }
+    }
+}
@@ -80,7 +80,7 @@ public class CommandDoc implements InputDoc
     @Override
     public byte[] getAttachment(String attachmentName) throws DocException
     {
-        throw new UnsupportedOperationException(NOT_IMPLEMENTED);
+        return null;
     }
 
     @Override
@@ -0,0 +1,248 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli.document;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+
+/**
+ * The bytes of a file, read with positional reads rather than mapped.
+ * <p>
+ * No handle of the file is kept between two reads of the index: the channel used to scan the file is closed by
+ * {@link #release()}, and each stream has its own channel which is closed once it was read. The file can then be
+ * replaced or deleted without being held open, which a mapping would prevent until it is garbage collected.
+ *
+ * @version $Id$
+ */
+final class FileBytes
+{
+    private static final int WINDOW_SIZE = 64 * 1024;
+
+    private final Path file;
+
+    private final int size;
+
+    /**
+     * The bytes read last, since the file is mostly scanned forward.
+     */
+    private final ByteBuffer window = ByteBuffer.allocate(WINDOW_SIZE).limit(0);
+
+    private int windowStart;
+
+    private FileChannel channel;
+
+    /**
+     * @param file the file to read.
+     * @param size the size of the file when it was indexed.
+     */
+    FileBytes(Path file, int size)
+    {
+        this.file = file;
+        this.size = size;
+    }
+
+    /**
+     * @return the size of the file.
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * @param offset the offset of the byte, lower than {@link #size()}.
+     * @return the byte at the given offset.
+     * @throws UncheckedIOException if the file can't be read.
+     */
+    byte get(int offset)
+    {
+        var index = offset - windowStart;
+        if (index < 0 || index >= window.limit()) {
+            // Never past the end of the file, so the window is always filled.
+            window.clear().limit(Math.min(WINDOW_SIZE, size - offset));
+            read(offset, window);
+            window.flip();
+            windowStart = offset;
+            index = 0;
+        }
+        return window.get(index);
+    }
+
+    /**
+     * @return the bytes between the given offsets.
+     * @throws UncheckedIOException if the file can't be read.
+     */
+    byte[] get(int from, int to)
+    {
+        var bytes = new byte[to - from];
+        if (from >= windowStart && to <= windowStart + window.limit()) {
+            window.get(from - windowStart, bytes);
+        } else {
+            read(from, ByteBuffer.wrap(bytes));
+        }
+        return bytes;
+    }
+
+    /**
+     * Close the channel used to read single bytes. It is opened again when they are read again.
+     */
+    void release()
+    {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Only read, so there is nothing to lose.
+            }
+            channel = null;
+        }
+        window.limit(0);
+    }
+
+    /**
+     * @return a stream reading the bytes between the given offsets, which opens the file when it is first read and
+     *     closes it once it was read to the end.
+     */
+    InputStream open(int from, int to)
+    {
+        return new RegionInputStream(from, to);
+    }
+
+    /**
+     * @param from the offset of the first byte to copy.
+     * @param to the offset following the last byte to copy.
+     * @param target where to copy the bytes.
+     * @throws IOException if the file can't be read or the bytes can't be written.
+     */
+    void transferTo(int from, int to, WritableByteChannel target) throws IOException
+    {
+        try (var source = openChannel()) {
+            long position = from;
+            while (position < to) {
+                var count = source.transferTo(position, to - position, target);
+                if (count == 0 && position >= source.size()) {
+                    throw new EOFException(file.toString());
+                }
+                position += count;
+            }
+        }
+    }
+
+    private void read(int offset, ByteBuffer target)
+    {
+        try {
+            if (channel == null) {
+                channel = openChannel();
+            }
+            long position = offset;
+            while (target.hasRemaining()) {
+                var count = channel.read(target, position);
+                if (count < 0) {
+                    throw new EOFException(file.toString());
+                }
+                position += count;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private FileChannel openChannel() throws IOException
+    {
+        var opened = FileChannel.open(file);
+        if (opened.size() != size) {
+            // The offsets don't match this file.
+            opened.close();
+            throw new IOException("The file [" + file + "] was modified since it was indexed");
+        }
+        return opened;
+    }
+
+    /**
+     * Read the bytes between two offsets, with a channel which is only open while they are read.
+     */
+    private final class RegionInputStream extends InputStream
+    {
+        private final int end;
+
+        private int position;
+
+        private FileChannel source;
+
+        RegionInputStream(int from, int to)
+        {
+            this.position = from;
+            this.end = to;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            var bytes = new byte[1];
+            return read(bytes, 0, 1) < 0 ? -1 : bytes[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException
+        {
+            if (length == 0) {
+                return 0;
+            }
+            if (position >= end) {
+                close();
+                return -1;
+            }
+            if (source == null) {
+                source = openChannel();
+            }
+            var count = source.read(ByteBuffer.wrap(bytes, offset, Math.min(length, end - position)), position);
+            if (count < 0) {
+                throw new EOFException(file.toString());
+            }
+            position += count;
+            if (position >= end) {
+                close();
+            }
+            return count;
+        }
+
+        @Override
+        public int available()
+        {
+            return end - position;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (source != null) {
+                source.close();
+                source = null;
+            }
+        }
+    }
+}
@@ -20,10 +20,13 @@
 
 package org.xwiki.contrib.cli.document;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.Optional;
 
 import org.xwiki.contrib.cli.DocException;
+import org.xwiki.contrib.cli.Utils;
 import org.xwiki.contrib.cli.document.element.AttachmentInfo;
 import org.xwiki.contrib.cli.document.element.ObjectInfo;
 
@@ -65,6 +68,30 @@ interface InputDoc
 
     byte[] getAttachment(String attachmentName) throws DocException;
 
+    /**
+     * @param attachmentName the name of the attachment.
+     * @return a stream reading the content of the attachment, to be closed once read, or null if there is no such
+     *     attachment.
+     */
+    default InputStream openAttachment(String attachmentName) throws DocException
+    {
+        var content = getAttachment(attachmentName);
+        return content == null ? null : new ByteArrayInputStream(content);
+    }
+
+    /**
+     * @param attachmentName the name of the attachment.
+     * @param offset the position of the first byte to read.
+     * @param length the maximum number of bytes to read.
+     * @return the bytes of the attachment in the given range, fewer than asked near the end of the attachment, or
+     *     null if there is no such attachment.
+     */
+    default byte[] getAttachment(String attachmentName, long offset, int length) throws DocException
+    {
+        var content = getAttachment(attachmentName);
+        return content == null ? null : Utils.getRange(content, offset, length);
+    }
+
     /**
      * @param objectClass the class of object to consider, or empty if no class is specified.
      * @param objectNumber the number of the object to consider, or empty if not specified.
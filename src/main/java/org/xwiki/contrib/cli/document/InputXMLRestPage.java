@@ -20,12 +20,24 @@
 
 package org.xwiki.contrib.cli.document;
 
-import java.net.http.HttpResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.dom4j.Element;
 
 import org.xwiki.contrib.cli.Command;
 import org.xwiki.contrib.cli.DocException;
 import org.xwiki.contrib.cli.MessageForUserDocException;
 import org.xwiki.contrib.cli.Utils;
+import org.xwiki.contrib.cli.document.element.ObjectInfo;
+
+import static java.lang.System.err;
 
 class InputXMLRestPage extends AbstractXMLDoc implements InputDoc
 {
@@ -35,31 +47,22 @@ class InputXMLRestPage extends AbstractXMLDoc implements InputDoc
 
     private final String url;
 
-    InputXMLRestPage(Command cmd, String wiki, String page) throws DocException
+    /**
+     * The objects fetched on their own, by class and number, null for those which don't exist.
+     */
+    private final Map<String, Element> objectElements = new HashMap<>();
+
+    private Projection loaded;
+
+    InputXMLRestPage(Command cmd, String wiki, String page, Projection projection) throws DocException
     {
         super(cmd);
 
         this.page = page;
         this.wiki = wiki;
-        url = Utils.getDocRestURLFromCommand(cmd, wiki, page, true);
+        url = Utils.getDocRestURLFromCommand(cmd, wiki, page, false);
 
-        var response = Utils.httpGet(cmd, url);
-        var status = response.statusCode();
-        if (status == 200) {
-            handleResponse(response);
-        } else if (status == 404 && cmd.acceptNewDocument()) {
-            // 404 : Document not found, we assume it's a document we would like to create
-            response = Utils.httpPut(cmd, url, "", null);
-            status = response.statusCode();
-            if (status == 201) {
-                // 201 : New Document Created
-                handleResponse(response);
-            } else {
-                handleUnexpectedStatus(status, cmd, response);
-            }
-        } else {
-            handleUnexpectedStatus(status, cmd, response);
-        }
+        fetch(projection);
     }
 
     public String getWiki()
@@ -80,26 +83,187 @@ class InputXMLRestPage extends AbstractXMLDoc implements InputDoc
         return Utils.httpGetBytes(cmd, attachmentURL).body();
     }
 
+    @Override
+    public InputStream openAttachment(String attachmentName) throws DocException
+    {
+        String attachmentURL = Utils.getAttachmentRestURLFromCommand(cmd, wiki, page, attachmentName);
+        var response = Utils.httpGetStream(cmd, attachmentURL);
+        var status = response.statusCode();
+        if (status == 200) {
+            return response.body();
+        }
+
+        try (var body = response.body()) {
+            if (status == 404) {
+                return null;
+            }
+            handleUnexpectedStatus(status, cmd, new String(body.readAllBytes(), StandardCharsets.UTF_8));
+            return null;
+        } catch (IOException e) {
+            throw new DocException(e);
+        }
+    }
+
+    @Override
+    public byte[] getAttachment(String attachmentName, long offset, int length) throws DocException
+    {
+        if (length <= 0) {
+            return new byte[0];
+        }
+
+        String attachmentURL = Utils.getAttachmentRestURLFromCommand(cmd, wiki, page, attachmentName);
+        var response = Utils.httpGetRange(cmd, attachmentURL, offset, length);
+        var body = response.body();
+        return switch (response.statusCode()) {
+            case 206 -> body;
+            // 200 : The server ignored the range and sent the whole attachment
+            case 200 -> Utils.getRange(body, offset, length);
+            // 416 : Range Not Satisfiable, the offset is past the end of the attachment
+            case 416 -> new byte[0];
+            case 404 -> null;
+            default -> {
+                handleUnexpectedStatus(response.statusCode(), cmd, new String(body, StandardCharsets.UTF_8));
+                yield null;
+            }
+        };
+    }
+
+    @Override
+    public Optional<String> getValue(String objectClass, String objectNumber, String property) throws DocException
+    {
+        if (property == null || !isSingleObjectFetchable(objectClass, objectNumber)) {
+            return super.getValue(objectClass, objectNumber, property);
+        }
+
+        // The object is known, so only this object is requested instead of all the objects of the page.
+        var object = getObjectElement(objectClass, objectNumber);
+        if (object == null) {
+            return Optional.empty();
+        }
+
+        var value = XPathCache.selectSingleNode(object, XPATH_REST_PROPERTY_NAME, property);
+        return value == null ? Optional.empty() : Optional.of(value.getText());
+    }
+
+    @Override
+    public Collection<ObjectInfo> getObjects(String objectClass, String objectNumber, String property)
+        throws DocException
+    {
+        if (!isSingleObjectFetchable(objectClass, objectNumber)) {
+            return super.getObjects(objectClass, objectNumber, property);
+        }
+
+        // The object is known, so only this object is requested instead of all the objects of the page.
+        var object = getObjectElement(objectClass, objectNumber);
+        if (object == null) {
+            return List.of();
+        }
+
+        if (property != null && XPathCache.selectSingleNode(object, XPATH_REST_PROPERTY_NAME, property) == null) {
+            return List.of();
+        }
+
+        return getObjectSpec(object).stream().toList();
+    }
+
     @Override
     public String getFriendlyName()
     {
         return "the page at [" + url + "]";
     }
 
-    private void handleResponse(HttpResponse<String> response)
+    @Override
+    protected void load(Projection projection) throws DocException
     {
-        var body = response.body();
-        setXML(body, true);
+        if (!loaded.includes(projection)) {
+            fetch(loaded.with(projection));
+        }
+    }
+
+    private void fetch(Projection projection) throws DocException
+    {
+        var response = Utils.httpGetStream(cmd, url + projection.getQueryString());
+        try (var body = response.body()) {
+            var status = response.statusCode();
+            if (status == 200) {
+                setDom(Utils.parseXML(body), true);
+                loaded = projection;
+            } else if (status == 404 && cmd.acceptNewDocument()) {
+                // 404 : Document not found, we assume it's a document we would like to create
+                createPage(cmd);
+                // A new page has neither objects nor attachments
+                loaded = Projection.FULL;
+            } else {
+                handleUnexpectedStatus(status, cmd, new String(body.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            throw new DocException(e);
+        }
+    }
+
+    /**
+     * @return true if the objects of the page were not fetched, and the given object is fully specified so it can be
+     *     fetched on its own.
+     */
+    private boolean isSingleObjectFetchable(String objectClass, String objectNumber)
+    {
+        return !loaded.includes(Projection.OBJECTS) && Utils.present(objectClass) && Utils.present(objectNumber);
+    }
+
+    /**
+     * @return the root element of the REST resource of the given object, null if it doesn't exist. It is only fetched
+     *     once, as long as the page is.
+     */
+    private Element getObjectElement(String objectClass, String objectNumber) throws DocException
+    {
+        var key = objectClass + '/' + objectNumber;
+        if (!objectElements.containsKey(key)) {
+            objectElements.put(key, fetchObjectElement(objectClass, objectNumber));
+        }
+        return objectElements.get(key);
+    }
+
+    private Element fetchObjectElement(String objectClass, String objectNumber) throws DocException
+    {
+        var response = Utils.httpGetStream(cmd,
+            url + "/objects/" + Utils.encodeURLPart(objectClass) + '/' + Utils.encodeURLPart(objectNumber));
+        try (var body = response.body()) {
+            var status = response.statusCode();
+            if (status == 200) {
+                var dom = Utils.parseXML(body);
+                if (cmd.printXML()) {
+                    err.println(LINE + dom.asXML() + LINE);
+                }
+                return dom.getRootElement();
+            } else if (status != 404) {
+                handleUnexpectedStatus(status, cmd, new String(body.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            return null;
+        } catch (IOException e) {
+            throw new DocException(e);
+        }
+    }
+
+    private void createPage(Command cmd) throws DocException
+    {
+        var response = Utils.httpPut(cmd, url, "", null);
+        var status = response.statusCode();
+        if (status == 201) {
+            // 201 : New Document Created
+            setXML(response.body(), true);
+        } else {
+            handleUnexpectedStatus(status, cmd, response.body());
+        }
     }
 
-    private void handleUnexpectedStatus(int status, Command cmd, HttpResponse<String> response) throws DocException
+    private void handleUnexpectedStatus(int status, Command cmd, String body) throws DocException
     {
         throw new MessageForUserDocException(
             "Unexpected status "
                 + status
                 + ". "
                 + (cmd.debug()
-                ? "Body: " + response.body()
+                ? "Body: " + body
                 : " Use --debug to print the body of the HTTP request")
         );
     }
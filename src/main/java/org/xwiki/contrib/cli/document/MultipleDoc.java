@@ -21,7 +21,10 @@
 package org.xwiki.contrib.cli.document;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
@@ -60,6 +63,21 @@ public class MultipleDoc implements InputDoc, OutputDoc
      * @throws IOException
      */
     public MultipleDoc(Command cmd, String wiki, String page) throws DocException, IOException
+    {
+        this(cmd, wiki, page, Projection.FULL);
+    }
+
+    /**
+     * Create a new multiple document, only fetching the given parts of the page from the wiki at first.
+     *
+     * @param cmd the command.
+     * @param wiki the wiki ID.
+     * @param page the page reference.
+     * @param projection the parts of the page which are going to be used.
+     * @throws DocException
+     * @throws IOException
+     */
+    public MultipleDoc(Command cmd, String wiki, String page, Projection projection) throws DocException, IOException
     {
         inputDocs = new ArrayList<>();
         outputDocs = new ArrayList<>();
@@ -84,7 +102,7 @@ public class MultipleDoc implements InputDoc, OutputDoc
 
         if (Utils.present(cmd.url())) {
             if (!cmd.wikiWriteonly()) {
-                inputDocs.add(new InputXMLRestPage(cmd, wiki, page));
+                inputDocs.add(new InputXMLRestPage(cmd, wiki, page, projection));
             }
             if (!cmd.wikiReadonly()) {
                 outputDocs.add(new OutputXMLRestPage(cmd, wiki, page));
@@ -208,6 +226,43 @@ public class MultipleDoc implements InputDoc, OutputDoc
         return attachment;
     }
 
+    @Override
+    public InputStream openAttachment(String attachmentName) throws DocException
+    {
+        // Comparing streamed attachments would mean reading them entirely, so ask as soon as several documents have
+        // the attachment.
+        InputStream attachment = null;
+        for (var inputDoc : inputDocs) {
+            var newAttachment = inputDoc.openAttachment(attachmentName);
+            if (attachment == null) {
+                attachment = newAttachment;
+            } else if (newAttachment != null) {
+                close(attachment);
+                close(newAttachment);
+                return pickInputFile(TEXT_ATTACHMENT_LIST).openAttachment(attachmentName);
+            }
+        }
+        if (attachment == null) {
+            throw new DocException(String.format(XMLFileDoc.CANT_FIND_ATTACHMENT, attachmentName));
+        }
+        return attachment;
+    }
+
+    @Override
+    public byte[] getAttachment(String attachmentName, long offset, int length) throws DocException
+    {
+        byte[] attachment = null;
+        for (var inputDoc : inputDocs) {
+            var newAttachment = inputDoc.getAttachment(attachmentName, offset, length);
+            if (attachment == null) {
+                attachment = newAttachment;
+            } else if (newAttachment != null && !Arrays.equals(attachment, newAttachment)) {
+                return pickInputFile(TEXT_ATTACHMENT_LIST).getAttachment(attachmentName, offset, length);
+            }
+        }
+        return attachment;
+    }
+
     @Override
     public Optional<String> getValue(String objectClass, String objectNumber, String property) throws DocException
     {
@@ -248,12 +303,29 @@ public class MultipleDoc implements InputDoc, OutputDoc
         }
     }
 
+    @Override
+    public void setAttachment(String attachmentName, Path file) throws DocException
+    {
+        for (var outputDoc : outputDocs) {
+            outputDoc.setAttachment(attachmentName, file);
+        }
+    }
+
     @Override
     public String getFriendlyName()
     {
         return "the merged document";
     }
 
+    private static void close(InputStream stream) throws DocException
+    {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            throw new DocException(e);
+        }
+    }
+
     private InputDoc pickInputFile(String what) throws DocException
     {
         out.println(
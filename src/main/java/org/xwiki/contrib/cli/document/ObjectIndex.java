@@ -0,0 +1,163 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli.document;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.dom4j.Element;
+import org.dom4j.Node;
+
+import static java.lang.System.err;
+
+/**
+ * Index of the objects of a parsed document by class, number and property, so looking up a property doesn't scan all
+ * the objects of the document.
+ * <p>
+ * The index refers to the elements of the DOM, so changing the value of a property through the index keeps it up to
+ * date. It has to be built again when the DOM is replaced.
+ *
+ * @version $Id$
+ */
+final class ObjectIndex
+{
+    private final List<IndexedObject> objects = new ArrayList<>();
+
+    private final Map<String, List<IndexedObject>> objectsByClass = new HashMap<>();
+
+    private final Map<String, List<IndexedObject>> objectsByClassAndNumber = new HashMap<>();
+
+    /**
+     * The objects missing their class or their number, reported when a lookup would have had to check them.
+     */
+    private final List<IndexedObject> malformedObjects = new ArrayList<>();
+
+    /**
+     * An object of the document.
+     *
+     * @param element the element of the object.
+     * @param className the class of the object, null if missing.
+     * @param number the number of the object, null if missing.
+     * @param values the value element of each property of the object, by property name.
+     */
+    record IndexedObject(Element element, String className, String number, Map<String, Element> values)
+    {
+    }
+
+    /**
+     * @param objectNodes the object elements of the document, in document order.
+     * @param fromRest true if the document comes from the REST API, false if it is an exported XML document.
+     */
+    ObjectIndex(List<Node> objectNodes, boolean fromRest)
+    {
+        for (var node : objectNodes) {
+            var object = (Element) node;
+            var className = getText(object, AbstractXMLDoc.NODE_NAME_CLASS_NAME);
+            var number = getText(object, AbstractXMLDoc.NODE_NAME_NUMBER);
+            var indexed = new IndexedObject(object, className, number, getValues(object, fromRest));
+            objects.add(indexed);
+            if (className == null || number == null) {
+                malformedObjects.add(indexed);
+            }
+            if (className != null) {
+                objectsByClass.computeIfAbsent(className, c -> new ArrayList<>()).add(indexed);
+                if (number != null) {
+                    objectsByClassAndNumber.computeIfAbsent(className + '/' + number, c -> new ArrayList<>())
+                        .add(indexed);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param objectClass the class of the objects to find, null for any class.
+     * @param objectNumber the number of the objects to find, null for any number.
+     * @return the matching objects, in document order.
+     */
+    List<IndexedObject> find(String objectClass, String objectNumber)
+    {
+        reportMalformedObjects(objectClass, objectNumber);
+
+        if (objectClass == null) {
+            if (objectNumber == null) {
+                return objects;
+            }
+            return objects.stream().filter(o -> objectNumber.equals(o.number())).toList();
+        }
+
+        if (objectNumber == null) {
+            return objectsByClass.getOrDefault(objectClass, List.of());
+        }
+
+        return objectsByClassAndNumber.getOrDefault(objectClass + '/' + objectNumber, List.of());
+    }
+
+    /**
+     * Report the objects which can't be checked against the given filters.
+     */
+    private void reportMalformedObjects(String objectClass, String objectNumber)
+    {
+        for (var object : malformedObjects) {
+            if (objectClass != null) {
+                if (object.className() == null) {
+                    err.println("Couldn't find class name of object");
+                    continue;
+                }
+                if (!objectClass.equals(object.className())) {
+                    continue;
+                }
+            }
+
+            if (objectNumber != null && object.number() == null) {
+                err.println("Couldn't find class number of object");
+            }
+        }
+    }
+
+    private static String getText(Element object, String name)
+    {
+        var element = XPathCache.getChild(object, name);
+        return element == null ? null : element.getText();
+    }
+
+    private static Map<String, Element> getValues(Element object, boolean fromRest)
+    {
+        var values = new HashMap<String, Element>();
+        for (var property : XPathCache.getChildren(object, AbstractXMLDoc.NODE_NAME_PROPERTY)) {
+            if (fromRest) {
+                // <property name="code"><value>...</value></property>
+                var value = XPathCache.getChild(property, AbstractXMLDoc.NODE_NAME_VALUE);
+                var name = property.attributeValue(AbstractXMLDoc.NODE_NAME);
+                if (value != null && name != null) {
+                    values.putIfAbsent(name, value);
+                }
+            } else {
+                // <property><code>...</code></property>
+                for (var value : property.elements()) {
+                    values.putIfAbsent(value.getName(), value);
+                }
+            }
+        }
+        return values;
+    }
+}
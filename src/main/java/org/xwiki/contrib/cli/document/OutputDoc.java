@@ -20,6 +20,8 @@
 
 package org.xwiki.contrib.cli.document;
 
+import java.nio.file.Path;
+
 import org.xwiki.contrib.cli.DocException;
 
 /**
@@ -67,6 +69,15 @@ public interface OutputDoc
      */
     void setAttachment(String attachmentName, byte[] content) throws DocException;
 
+    /**
+     * Set the attachment content from a file, without loading the whole file in memory when possible.
+     *
+     * @param attachmentName name of the attachment.
+     * @param file the file containing the value to set.
+     * @throws DocException
+     */
+    void setAttachment(String attachmentName, Path file) throws DocException;
+
     /**
      * @return a friendly string like "the XML file SomeDoc.xml"
      */
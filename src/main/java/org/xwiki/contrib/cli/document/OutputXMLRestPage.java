@@ -21,6 +21,7 @@
 package org.xwiki.contrib.cli.document;
 
 import java.net.http.HttpResponse;
+import java.nio.file.Path;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
@@ -36,6 +37,8 @@ class OutputXMLRestPage extends AbstractXMLDoc implements OutputDoc
 {
     private static final String APPLICATION_XML_CHARSET_UTF_8 = "application/xml; charset=utf-8";
 
+    private static final String APPLICATION_OCTET_STREAM = "application/octet-stream";
+
     protected final String wiki;
 
     protected final String page;
@@ -103,39 +106,22 @@ class OutputXMLRestPage extends AbstractXMLDoc implements OutputDoc
         }
 
         if (objectValues != null) {
+            // XWiki saves the whole document for each object, so the objects of a page are saved one after the other
+            // to keep concurrent saves from overwriting each other.
             for (var objectSpec : objectValues) {
-                var objectClassName = objectSpec.objectClass();
-                var objectNumber = objectSpec.number();
-
-                int builderSize =
-                    500 + objectSpec.properties().stream().map(i -> i.value().length() + 100).reduce(0, Integer::sum);
-                StringBuilder xml = new StringBuilder(builderSize);
-                xml.append("<object xmlns='http://www.xwiki.org'>");
-                xml.append("<className>").append(objectClassName).append("</className>");
-                xml.append("<number>").append(objectNumber).append("</number>");
-
-                for (var propWithValue : objectSpec.properties()) {
-                    xml.append("<property name='").append(Utils.escapeXML(propWithValue.name())).append("'>")
-                        .append("<value>").append(Utils.escapeXML(propWithValue.value())).append("</value>")
-                        .append("</property>");
-                }
-                xml.append("</object>");
-                checkStatus(Utils.httpPut(cmd, url + "/objects/" + objectClassName + '/' + objectNumber, xml.toString(),
-                    APPLICATION_XML_CHARSET_UTF_8));
+                saveObject(objectSpec);
             }
         }
 
         if (content != null || title != null) {
-            int builderSize = (content == null ? 0 : content.length()) + (title == null ? 0 : title.length()) + 500;
-            var xml = new StringBuilder(builderSize);
-            xml.append("<page xmlns='http://www.xwiki.org'>");
+            var xml = new XMLBody().append("<page xmlns='http://www.xwiki.org'>");
 
             if (content != null) {
-                xml.append("<content>").append(Utils.escapeXML(content)).append("</content>");
+                xml.appendElement(NODE_NAME_CONTENT, content);
             }
 
             if (title != null) {
-                xml.append("<title>").append(Utils.escapeXML(title)).append("</title>");
+                xml.appendElement(NODE_NAME_TITLE, title);
             }
 
             xml.append("</page>");
@@ -145,8 +131,28 @@ class OutputXMLRestPage extends AbstractXMLDoc implements OutputDoc
             }
             content = null;
             title = null;
-            checkStatus(Utils.httpPut(cmd, url, xml.toString(), APPLICATION_XML_CHARSET_UTF_8));
+            checkStatus(Utils.httpPut(cmd, url, xml.toBodyPublisher(), APPLICATION_XML_CHARSET_UTF_8));
+        }
+    }
+
+    private void saveObject(ObjectInfo objectSpec) throws DocException
+    {
+        var objectClassName = objectSpec.objectClass();
+        var objectNumber = objectSpec.number();
+
+        // The values are escaped while they are sent.
+        var xml = new XMLBody().append("<object xmlns='http://www.xwiki.org'>");
+        xml.appendElement("className", objectClassName);
+        xml.appendElement("number", Integer.toString(objectNumber));
+
+        for (var propWithValue : objectSpec.properties()) {
+            xml.append("<property name='").appendEscaped(propWithValue.name()).append("'>")
+                .appendElement("value", propWithValue.value())
+                .append("</property>");
         }
+        xml.append("</object>");
+        checkStatus(Utils.httpPut(cmd, url + "/objects/" + Utils.encodeURLPart(objectClassName) + '/' + objectNumber,
+            xml.toBodyPublisher(), APPLICATION_XML_CHARSET_UTF_8));
     }
 
     @Override
@@ -154,7 +160,15 @@ class OutputXMLRestPage extends AbstractXMLDoc implements OutputDoc
     {
         String attachmentURL =
             Utils.getAttachmentRestURLFromCommand(cmd, wiki, page, attachmentName);
-        Utils.httpPut(cmd, attachmentURL, content, "application/octet-stream");
+        checkStatus(Utils.httpPut(cmd, attachmentURL, content, APPLICATION_OCTET_STREAM));
+    }
+
+    @Override
+    public void setAttachment(String attachmentName, Path file) throws DocException
+    {
+        String attachmentURL =
+            Utils.getAttachmentRestURLFromCommand(cmd, wiki, page, attachmentName);
+        checkStatus(Utils.httpPut(cmd, attachmentURL, file, APPLICATION_OCTET_STREAM));
     }
 
     @Override
@@ -166,7 +180,7 @@ class OutputXMLRestPage extends AbstractXMLDoc implements OutputDoc
     private InputXMLRestPage getInputPage() throws DocException
     {
         if (inputPage == null) {
-            inputPage = new InputXMLRestPage(cmd, wiki, page);
+            inputPage = new InputXMLRestPage(cmd, wiki, page, Projection.OBJECTS);
         }
         return inputPage;
     }
@@ -0,0 +1,102 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli.document;
+
+/**
+ * The parts of a page to fetch from the wiki, so actions only download what they need.
+ * <p>
+ * Pages with many objects or attachments can be much larger than their title and content, so the objects and the
+ * attachment summaries are only requested by the actions using them. The parts which were not fetched are fetched on
+ * demand if they end up being needed anyway.
+ *
+ * @version $Id$
+ */
+public enum Projection
+{
+    /**
+     * Only the page itself: title, content and syntax.
+     */
+    PAGE(false, false),
+
+    /**
+     * The page and its objects.
+     */
+    OBJECTS(true, false),
+
+    /**
+     * The page and the summaries of its attachments.
+     */
+    ATTACHMENTS(false, true),
+
+    /**
+     * The page, its objects and the summaries of its attachments.
+     */
+    FULL(true, true);
+
+    private final boolean objects;
+
+    private final boolean attachments;
+
+    Projection(boolean objects, boolean attachments)
+    {
+        this.objects = objects;
+        this.attachments = attachments;
+    }
+
+    /**
+     * @param other another projection.
+     * @return true if all the parts of the other projection are part of this one.
+     */
+    public boolean includes(Projection other)
+    {
+        return (objects || !other.objects) && (attachments || !other.attachments);
+    }
+
+    /**
+     * @param other another projection.
+     * @return the smallest projection including both this one and the other one.
+     */
+    public Projection with(Projection other)
+    {
+        var withObjects = objects || other.objects;
+        var withAttachments = attachments || other.attachments;
+        for (var projection : values()) {
+            if (projection.objects == withObjects && projection.attachments == withAttachments) {
+                return projection;
+            }
+        }
+        return FULL;
+    }
+
+    /**
+     * @return the query string to add to the REST URL of a page to get this projection of it.
+     */
+    String getQueryString()
+    {
+        if (objects && attachments) {
+            return "?objects=true&attachments=true";
+        }
+        if (objects) {
+            return "?objects=true";
+        }
+        return attachments ? "?attachments=true" : "";
+    }
+}
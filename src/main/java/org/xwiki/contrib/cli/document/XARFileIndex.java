@@ -0,0 +1,778 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli.document;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.Node;
+import org.xwiki.contrib.cli.DocException;
+import org.xwiki.contrib.cli.Utils;
+import org.xwiki.contrib.cli.document.element.AttachmentInfo;
+
+/**
+ * Byte offsets of the objects and attachments of an exported XML document, so they can be read without parsing the
+ * whole document.
+ * <p>
+ * The file is scanned once to find where each child of the root element starts and ends. Only the regions which are
+ * actually needed are then read and parsed, and attachments are decoded from base64 as they are read. This matters
+ * for documents with large attachments, where most calls only need a single small field. The file is not kept open
+ * between two calls, so it can be replaced while the index is still used.
+ * <p>
+ * Only UTF-8 documents without default namespace or doctype are indexed. Regions are parsed in a copy of the root
+ * element, so the namespace prefixes it declares are still bound.
+ *
+ * @version $Id$
+ */
+final class XARFileIndex
+{
+    private static final String NODE_NAME_OBJECT = "object";
+
+    private static final String NODE_NAME_ATTACHMENT = "attachment";
+
+    private static final String NODE_NAME_FILENAME = "filename";
+
+    private static final String NODE_NAME_FILESIZE = "filesize";
+
+    private static final String NODE_NAME_CONTENT = "content";
+
+    private static final Pattern ENCODING = Pattern.compile("encoding\\s*=\\s*[\"']([^\"']+)[\"']");
+
+    private static final Pattern DEFAULT_NAMESPACE = Pattern.compile("\\sxmlns\\s*=");
+
+    private static final String DECLARATION_END = "?>";
+
+    private static final String[][] DELIMITERS = {{"<?", DECLARATION_END}, {"<!--", "-->"}, {"<![CDATA[", "]]>"}};
+
+    private static final byte[] UTF8_BOM = {(byte) 0xef, (byte) 0xbb, (byte) 0xbf};
+
+    private final FileBytes bytes;
+
+    /**
+     * The size and modification time of the file when it was indexed, to detect when it was changed since.
+     */
+    private final BasicFileAttributes fileAttributes;
+
+    /**
+     * The XML declaration of the file, parsed along with each region so it is read with the same XML version.
+     */
+    private final byte[] declaration;
+
+    private final Region root;
+
+    private final List<Region> rootChildren;
+
+    private final List<Region> objects = new ArrayList<>();
+
+    private final List<Region> attachments = new ArrayList<>();
+
+    /**
+     * The elements parsed from the children of the root element, with the region they were parsed from.
+     */
+    private final Map<Element, Region> sources = new IdentityHashMap<>();
+
+    /**
+     * An element of the file.
+     *
+     * @param name the name of the element.
+     * @param start the offset of the start tag.
+     * @param end the offset following the end tag.
+     * @param contentStart the offset following the start tag.
+     * @param contentEnd the offset of the end tag.
+     */
+    private record Region(String name, int start, int end, int contentStart, int contentEnd)
+    {
+    }
+
+    /**
+     * Write an element in place of the region it was parsed from.
+     */
+    @FunctionalInterface
+    interface ElementWriter
+    {
+        /**
+         * @param element the element to write.
+         * @param out where to write it.
+         * @throws IOException if the element can't be written.
+         */
+        void write(Element element, OutputStream out) throws IOException;
+    }
+
+    private XARFileIndex(FileBytes bytes, BasicFileAttributes fileAttributes, byte[] declaration, Region root,
+        List<Region> rootChildren)
+    {
+        this.bytes = bytes;
+        this.fileAttributes = fileAttributes;
+        this.declaration = declaration;
+        this.root = root;
+        this.rootChildren = rootChildren;
+    }
+
+    /**
+     * @param file the exported XML document.
+     * @return the index of the document, null if it can't be indexed and has to be parsed as a whole.
+     * @throws DocException if the file can't be read.
+     */
+    static XARFileIndex open(Path file) throws DocException
+    {
+        BasicFileAttributes attributes;
+        try {
+            // Read before the file is, so a change made while it is read is seen as a change.
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            throw new DocException(e);
+        }
+        if (attributes.size() > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        var bytes = new FileBytes(file, (int) attributes.size());
+        try {
+            return index(bytes, attributes);
+        } catch (UncheckedIOException e) {
+            throw new DocException(e.getCause());
+        } finally {
+            bytes.release();
+        }
+    }
+
+    /**
+     * The offsets of the index are only valid as long as the file is not changed or replaced by another program. Only
+     * a change of its size is detected when it is read again, so this must be checked before relying on the index.
+     *
+     * @param file the indexed file.
+     * @return whether the file was changed, replaced or deleted since it was indexed.
+     */
+    boolean isModified(Path file)
+    {
+        try {
+            var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return attributes.size() != fileAttributes.size()
+                || !attributes.lastModifiedTime().equals(fileAttributes.lastModifiedTime())
+                || !Objects.equals(attributes.fileKey(), fileAttributes.fileKey());
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private static XARFileIndex index(FileBytes bytes, BasicFileAttributes attributes)
+    {
+        var start = startsWith(bytes, 0, UTF8_BOM) ? UTF8_BOM.length : 0;
+        var declaration = getDeclaration(bytes, start);
+        if (declaration == null) {
+            return null;
+        }
+
+        var children = new ArrayList<Region>();
+        var root = getRoot(bytes, skipProlog(bytes, start + declaration.length), children);
+        if (root == null) {
+            return null;
+        }
+
+        var index = new XARFileIndex(bytes, attributes, declaration, root, children);
+        for (var child : children) {
+            if (NODE_NAME_OBJECT.equals(child.name())) {
+                index.objects.add(child);
+            } else if (NODE_NAME_ATTACHMENT.equals(child.name())) {
+                index.attachments.add(child);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @param rootStart the offset of the start tag of the root element.
+     * @param children where to add the children of the root element.
+     * @return the root element, null if it is not supported.
+     */
+    private static Region getRoot(FileBytes bytes, int rootStart, List<Region> children)
+    {
+        var rootContentStart = rootStart < 0 ? -1 : getMarkupEnd(bytes, rootStart, bytes.size());
+        if (rootContentStart < 0 || bytes.get(rootContentStart - 2) == '/') {
+            return null;
+        }
+
+        var startTag = new String(bytes.get(rootStart, rootContentStart), StandardCharsets.UTF_8);
+        if (DEFAULT_NAMESPACE.matcher(startTag).find()) {
+            return null;
+        }
+
+        // The scan of the children stops at the end tag of the root element.
+        var rootContentEnd = new ChildScanner(bytes, children).scan(rootContentStart, bytes.size());
+        var rootEnd = rootContentEnd < 0 ? -1 : getMarkupEnd(bytes, rootContentEnd, bytes.size());
+        if (rootEnd < 0) {
+            return null;
+        }
+
+        return new Region(getName(bytes, rootStart + 1), rootStart, rootEnd, rootContentStart, rootContentEnd);
+    }
+
+    /**
+     * @return the XML declaration at the given offset, empty if there is none, null if the encoding of the file is not
+     *     UTF-8.
+     */
+    private static byte[] getDeclaration(FileBytes bytes, int start)
+    {
+        if (!startsWith(bytes, start, "<?xml".getBytes(StandardCharsets.US_ASCII))) {
+            // Without declaration, the file is UTF-8 unless it starts with a UTF-16 byte order mark.
+            return start < bytes.size() && bytes.get(start) != '<' ? null : new byte[0];
+        }
+
+        var declarationEnd = getEnd(bytes, start, bytes.size(), DECLARATION_END);
+        if (declarationEnd < 0) {
+            return null;
+        }
+        var declaration = bytes.get(start, declarationEnd);
+        var encoding = ENCODING.matcher(new String(declaration, StandardCharsets.ISO_8859_1));
+        return encoding.find() && !"UTF-8".equalsIgnoreCase(encoding.group(1)) ? null : declaration;
+    }
+
+    /**
+     * @return the offset of the start tag of the root element, -1 if it can't be found.
+     */
+    private static int skipProlog(FileBytes bytes, int start)
+    {
+        var offset = find(bytes, start, bytes.size(), '<');
+        while (offset >= 0 && !isStartTag(bytes, offset)) {
+            var markupEnd = getMarkupEnd(bytes, offset, bytes.size());
+            offset = markupEnd < 0 ? -1 : find(bytes, markupEnd, bytes.size(), '<');
+        }
+        return offset;
+    }
+
+    /**
+     * @return the root element of the document, with its attributes but without its children.
+     * @throws DocException if the root element can't be parsed.
+     */
+    Element getRootElement() throws DocException
+    {
+        return parseInRoot(List.of()).getRootElement();
+    }
+
+    /**
+     * @return the object elements of the document, in document order. They are parsed together in a copy of the
+     *     root element which skips every other child, since parsing each of them on its own is slow when there are
+     *     many.
+     * @throws DocException if the objects can't be parsed.
+     */
+    List<Node> getObjects() throws DocException
+    {
+        if (objects.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        var regions = new ArrayList<InputStream>(objects.size());
+        for (var object : objects) {
+            regions.add(open(object.start(), object.end()));
+        }
+        var elements = XPathCache.getChildren(parseInRoot(regions).getRootElement(), NODE_NAME_OBJECT);
+        addSources(elements, objects);
+        return new ArrayList<>(elements);
+    }
+
+    /**
+     * @return the attachments of the document, read without decoding their content.
+     * @throws DocException if an attachment can't be parsed.
+     */
+    Collection<AttachmentInfo> getAttachments() throws DocException
+    {
+        var infos = new ArrayList<AttachmentInfo>(attachments.size());
+        try {
+            for (var attachment : attachments) {
+                var children = getChildren(bytes, attachment.contentStart(), attachment.contentEnd());
+                var name = getText(children, NODE_NAME_FILENAME);
+                var size = getText(children, NODE_NAME_FILESIZE);
+                if (name != null && size != null) {
+                    infos.add(new AttachmentInfo(name, Long.parseLong(size.trim())));
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw new DocException(e.getCause());
+        } finally {
+            bytes.release();
+        }
+        return infos;
+    }
+
+    /**
+     * @param attachmentName the name of the attachment.
+     * @return a stream decoding the content of the attachment as it is read, null if there is no such attachment.
+     * @throws DocException if the attachment can't be parsed.
+     */
+    InputStream openAttachment(String attachmentName) throws DocException
+    {
+        try {
+            return findAttachment(attachmentName);
+        } catch (UncheckedIOException e) {
+            throw new DocException(e.getCause());
+        } finally {
+            bytes.release();
+        }
+    }
+
+    private InputStream findAttachment(String attachmentName) throws DocException
+    {
+        for (var attachment : attachments) {
+            var children = getChildren(bytes, attachment.contentStart(), attachment.contentEnd());
+            if (!attachmentName.equals(getText(children, NODE_NAME_FILENAME))) {
+                continue;
+            }
+
+            var content = getChild(children, NODE_NAME_CONTENT);
+            if (content == null) {
+                return InputStream.nullInputStream();
+            }
+
+            if (isPlainText(content)) {
+                return getContent(content).open();
+            }
+
+            // Entities or CDATA sections, leave them to the parser.
+            return new ByteArrayInputStream(Base64.getMimeDecoder().decode(parse(content).getText()));
+        }
+        return null;
+    }
+
+    /**
+     * Parse the whole document, except the base64 content of the attachments which is left in the file.
+     *
+     * @param contents where to put the content of the attachments which were left out, by content element
+     * @param changed elements already parsed from the file and changed since, which replace the elements parsed
+     *     from the same regions
+     * @return the document, where the attachments which were left out have an empty content
+     * @throws DocException if the document can't be parsed.
+     */
+    Document parseDocument(Map<Element, AttachmentContent> contents, Collection<Element> changed)
+        throws DocException
+    {
+        var regions = new ArrayList<InputStream>();
+        var skipped = getSkippedContents();
+        var offset = 0;
+        for (var content : skipped) {
+            if (content != null) {
+                regions.add(open(offset, content.contentStart()));
+                offset = content.contentEnd();
+            }
+        }
+        regions.add(open(offset, bytes.size()));
+        var document = Utils.parseXML(new SequenceInputStream(Collections.enumeration(regions)));
+
+        // The attachment elements are in the same order as the indexed attachments.
+        var elements = XPathCache.getChildren(document.getRootElement(), NODE_NAME_ATTACHMENT);
+        for (var i = 0; i < elements.size() && i < skipped.size(); i++) {
+            if (skipped.get(i) != null) {
+                contents.put(XPathCache.getChild(elements.get(i), NODE_NAME_CONTENT), getContent(skipped.get(i)));
+            }
+        }
+
+        var rootElement = document.getRootElement();
+        var parsed = addSources(rootElement.elements(), rootChildren);
+        for (var element : changed) {
+            var replaced = parsed.get(sources.get(element));
+            if (replaced != null) {
+                var content = rootElement.content();
+                content.set(content.indexOf(replaced), element.detach());
+                sources.remove(replaced);
+            }
+        }
+        return document;
+    }
+
+    /**
+     * @return the content of each attachment, null when it can't be left out of the document because it's not plain
+     *     base64.
+     */
+    private List<Region> getSkippedContents() throws DocException
+    {
+        var skipped = new ArrayList<Region>(attachments.size());
+        try {
+            for (var attachment : attachments) {
+                var content = getChild(getChildren(bytes, attachment.contentStart(), attachment.contentEnd()),
+                    NODE_NAME_CONTENT);
+                skipped.add(content != null && isPlainText(content) ? content : null);
+            }
+        } catch (UncheckedIOException e) {
+            throw new DocException(e.getCause());
+        } finally {
+            bytes.release();
+        }
+        return skipped;
+    }
+
+    /**
+     * @param elements the elements parsed from the given regions, in the same order.
+     * @return the given elements, by region, empty if they don't match the regions.
+     */
+    private Map<Region, Element> addSources(List<Element> elements, List<Region> regions)
+    {
+        var parsed = new HashMap<Region, Element>();
+        if (elements.size() == regions.size()) {
+            for (var i = 0; i < elements.size(); i++) {
+                sources.put(elements.get(i), regions.get(i));
+                parsed.put(regions.get(i), elements.get(i));
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * @param element an element parsed from the file, or one of its descendants.
+     * @return the element, or its ancestor, which was parsed from a child of the root element, null if there is none.
+     */
+    Element getSourceElement(Element element)
+    {
+        for (var current = element; current != null; current = current.getParent()) {
+            if (sources.containsKey(current)) {
+                return current;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Write the file again with the given elements, each in place of the region it was parsed from. The rest of the
+     * file is copied as is, so the time it takes depends on the size of the changes rather than on the size of the
+     * document.
+     *
+     * @param elements elements returned by {@link #getSourceElement(Element)}.
+     * @param channel where to write the file.
+     * @param writer how to write the elements.
+     * @throws IOException if the file can't be written.
+     */
+    void writePatched(Collection<Element> elements, WritableByteChannel channel, ElementWriter writer)
+        throws IOException
+    {
+        var sorted = new ArrayList<>(elements);
+        sorted.sort(Comparator.comparingInt(element -> sources.get(element).start()));
+
+        var out = new BufferedOutputStream(Channels.newOutputStream(channel));
+        var offset = 0;
+        for (var element : sorted) {
+            var region = sources.get(element);
+            bytes.transferTo(offset, region.start(), channel);
+            writer.write(element, out);
+            out.flush();
+            offset = region.end();
+        }
+        bytes.transferTo(offset, bytes.size(), channel);
+    }
+
+    private FileContent getContent(Region content)
+    {
+        return new FileContent(bytes, content.contentStart(), content.contentEnd());
+    }
+
+    private InputStream open(int from, int to)
+    {
+        return bytes.open(from, to);
+    }
+
+    private Element parse(Region region) throws DocException
+    {
+        return parseInRoot(List.of(open(region.start(), region.end()))).getRootElement().elements().get(0);
+    }
+
+    /**
+     * @param children the regions of the children to parse.
+     * @return a document whose root element is a copy of the root element with only the given children.
+     */
+    private Document parseInRoot(List<InputStream> children) throws DocException
+    {
+        var regions = new ArrayList<InputStream>(children.size() + 3);
+        regions.add(new ByteArrayInputStream(declaration));
+        regions.add(open(root.start(), root.contentStart()));
+        regions.addAll(children);
+        regions.add(open(root.contentEnd(), root.end()));
+        return Utils.parseXML(new SequenceInputStream(Collections.enumeration(regions)));
+    }
+
+    private String getText(List<Region> children, String name) throws DocException
+    {
+        var child = getChild(children, name);
+        if (child == null) {
+            return null;
+        }
+        return isPlainText(child) ? new String(bytes.get(child.contentStart(), child.contentEnd()),
+            StandardCharsets.UTF_8) : parse(child).getText();
+    }
+
+    private static Region getChild(List<Region> children, String name)
+    {
+        if (children == null) {
+            return null;
+        }
+        for (var child : children) {
+            if (name.equals(child.name())) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the content of the element is text without entities, CDATA sections or comments.
+     */
+    private boolean isPlainText(Region region)
+    {
+        for (var i = region.contentStart(); i < region.contentEnd(); i++) {
+            var b = bytes.get(i);
+            if (b == '&' || b == '<') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the child elements of the element whose content is between the given offsets, null if the XML is not
+     *     supported, for instance because it contains a doctype.
+     */
+    private static List<Region> getChildren(FileBytes bytes, int from, int to)
+    {
+        var children = new ArrayList<Region>();
+        return new ChildScanner(bytes, children).scan(from, to) < 0 ? null : children;
+    }
+
+    private static boolean isStartTag(FileBytes bytes, int offset)
+    {
+        var next = offset + 1 < bytes.size() ? bytes.get(offset + 1) : '/';
+        return next != '?' && next != '!' && next != '/';
+    }
+
+    /**
+     * @return the offset following the markup starting at the given offset, -1 if it is not supported or not closed.
+     */
+    private static int getMarkupEnd(FileBytes bytes, int offset, int to)
+    {
+        for (var delimiters : DELIMITERS) {
+            if (startsWith(bytes, offset, delimiters[0].getBytes(StandardCharsets.US_ASCII))) {
+                return getEnd(bytes, offset, to, delimiters[1]);
+            }
+        }
+
+        if (offset + 1 < to && bytes.get(offset + 1) == '!') {
+            // Doctype
+            return -1;
+        }
+
+        return getTagEnd(bytes, offset, to);
+    }
+
+    private static int getTagEnd(FileBytes bytes, int offset, int to)
+    {
+        // Attribute values may contain '>'.
+        byte quote = 0;
+        for (var i = offset + 1; i < to; i++) {
+            var b = bytes.get(i);
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int getEnd(FileBytes bytes, int offset, int to, String end)
+    {
+        var index = indexOf(bytes, offset, to, end);
+        return index < 0 ? -1 : index + end.length();
+    }
+
+    private static String getName(FileBytes bytes, int offset)
+    {
+        var end = offset;
+        while (end < bytes.size()) {
+            var b = bytes.get(end);
+            if (b == '>' || b == '/' || Character.isWhitespace(b)) {
+                break;
+            }
+            end++;
+        }
+        return new String(bytes.get(offset, end), StandardCharsets.UTF_8);
+    }
+
+    private static int find(FileBytes bytes, int from, int to, char searched)
+    {
+        for (var i = from; i < to; i++) {
+            if (bytes.get(i) == searched) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(FileBytes bytes, int from, int to, String searched)
+    {
+        var searchedBytes = searched.getBytes(StandardCharsets.US_ASCII);
+        for (var i = from; i <= to - searchedBytes.length; i++) {
+            if (startsWith(bytes, i, searchedBytes)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(FileBytes bytes, int offset, byte[] prefix)
+    {
+        if (offset + prefix.length > bytes.size()) {
+            return false;
+        }
+        for (var i = 0; i < prefix.length; i++) {
+            if (bytes.get(offset + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the child elements of an element, following the depth of the elements it goes through.
+     */
+    private static final class ChildScanner
+    {
+        private final FileBytes bytes;
+
+        private final List<Region> children;
+
+        private int depth;
+
+        private int childStart;
+
+        private int childContentStart;
+
+        ChildScanner(FileBytes bytes, List<Region> children)
+        {
+            this.bytes = bytes;
+            this.children = children;
+        }
+
+        /**
+         * @return the offset of the end tag of the parent element, or the end offset if it was reached first, -1 if the
+         *     XML is not supported, for instance because it contains a doctype.
+         */
+        int scan(int from, int to)
+        {
+            var offset = find(bytes, from, to, '<');
+            while (offset >= 0) {
+                var markupEnd = getMarkupEnd(bytes, offset, to);
+                if (markupEnd < 0) {
+                    return -1;
+                }
+
+                if (bytes.get(offset + 1) == '/') {
+                    if (depth == 0) {
+                        return offset;
+                    }
+                    endTag(offset, markupEnd);
+                } else if (isStartTag(bytes, offset)) {
+                    startTag(offset, markupEnd);
+                }
+                offset = find(bytes, markupEnd, to, '<');
+            }
+
+            return depth == 0 ? to : -1;
+        }
+
+        private void startTag(int offset, int end)
+        {
+            if (depth == 0) {
+                childStart = offset;
+                childContentStart = end;
+            }
+            depth++;
+
+            if (bytes.get(end - 2) == '/') {
+                // Empty element
+                endTag(end, end);
+            }
+        }
+
+        private void endTag(int offset, int end)
+        {
+            depth--;
+            if (depth == 0) {
+                children.add(new Region(getName(bytes, childStart + 1), childStart, end, childContentStart, offset));
+            }
+        }
+    }
+
+    /**
+     * The base64 content of an attachment, read from the file.
+     *
+     * @param bytes the file.
+     * @param from the offset of the content, which may contain line breaks.
+     * @param to the offset following the content.
+     */
+    private record FileContent(FileBytes bytes, int from, int to) implements AttachmentContent
+    {
+        @Override
+        public InputStream open()
+        {
+            // The mime decoder ignores the line breaks. It may read a single byte at a time.
+            return Base64.getMimeDecoder().wrap(new BufferedInputStream(bytes.open(from, to), CHUNK_SIZE));
+        }
+
+        @Override
+        public void writeBase64(Writer writer) throws IOException
+        {
+            // Already encoded, so copied as is.
+            try (var in = bytes.open(from, to)) {
+                var chunk = new byte[CHUNK_SIZE];
+                var count = in.readNBytes(chunk, 0, CHUNK_SIZE);
+                while (count > 0) {
+                    writer.write(new String(chunk, 0, count, StandardCharsets.US_ASCII));
+                    count = in.readNBytes(chunk, 0, CHUNK_SIZE);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli.document;
+
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The XML body of a request. Text values are kept as they are given, and are only escaped and encoded to UTF-8 while
+ * the request is sent, so a large value is never copied in memory.
+ *
+ * @version $Id$
+ */
+final class XMLBody
+{
+    private static final byte[] AMP = "&amp;".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] APOS = "&apos;".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] QUOT = "&quot;".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] LT = "&lt;".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] GT = "&gt;".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The longest encoding of a character, an entity.
+     */
+    private static final int MAX_ENCODED_LENGTH = 6;
+
+    private final List<String> parts = new ArrayList<>();
+
+    private final BitSet escapedParts = new BitSet();
+
+    private long length = -1;
+
+    /**
+     * @param markup some XML, added as is.
+     * @return this body.
+     */
+    XMLBody append(String markup)
+    {
+        parts.add(markup);
+        length = -1;
+        return this;
+    }
+
+    /**
+     * @param text some text, escaped when it is sent.
+     * @return this body.
+     */
+    XMLBody appendEscaped(String text)
+    {
+        escapedParts.set(parts.size());
+        return append(text);
+    }
+
+    /**
+     * @param name the name of the element.
+     * @param text the text of the element, escaped when it is sent.
+     * @return this body.
+     */
+    XMLBody appendElement(String name, String text)
+    {
+        return append('<' + name + '>').appendEscaped(text).append("</" + name + '>');
+    }
+
+    /**
+     * @return the length of the body once escaped and encoded, counted from the characters without encoding them.
+     */
+    long getLength()
+    {
+        if (length < 0) {
+            var count = 0L;
+            for (var i = 0; i < parts.size(); i++) {
+                count += getEncodedLength(parts.get(i), escapedParts.get(i));
+            }
+            length = count;
+        }
+        return length;
+    }
+
+    /**
+     * @return a publisher encoding the body as it is sent, again each time it is sent.
+     */
+    HttpRequest.BodyPublisher toBodyPublisher()
+    {
+        return BodyPublishers.fromPublisher(BodyPublishers.ofInputStream(Encoder::new), getLength());
+    }
+
+    /**
+     * @return the number of bytes {@link Encoder} writes for the given text.
+     */
+    private static long getEncodedLength(String text, boolean escaped)
+    {
+        var count = 0L;
+        var i = 0;
+        while (i < text.length()) {
+            var c = text.charAt(i++);
+            var entity = escaped ? getEntity(c) : null;
+            if (entity != null) {
+                count += entity.length;
+            } else if (c < 0x80) {
+                count++;
+            } else if (c < 0x800) {
+                count += 2;
+            } else if (!Character.isSurrogate(c)) {
+                count += 3;
+            } else if (Character.isHighSurrogate(c) && isLowSurrogate(text, i)) {
+                count += 4;
+                i++;
+            } else {
+                // Unpaired surrogate, replaced by '?'.
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isLowSurrogate(String text, int index)
+    {
+        return index < text.length() && Character.isLowSurrogate(text.charAt(index));
+    }
+
+    private static byte[] getEntity(char c)
+    {
+        return switch (c) {
+            case '&' -> AMP;
+            case '\'' -> APOS;
+            case '"' -> QUOT;
+            case '<' -> LT;
+            case '>' -> GT;
+            default -> null;
+        };
+    }
+
+    /**
+     * Escape and encode the body one character at a time.
+     */
+    private final class Encoder extends InputStream
+    {
+        private final byte[] pending = new byte[MAX_ENCODED_LENGTH];
+
+        private int pendingStart;
+
+        private int pendingEnd;
+
+        private int part;
+
+        private int index;
+
+        @Override
+        public int read()
+        {
+            if (pendingStart == pendingEnd && !next()) {
+                return -1;
+            }
+            return pending[pendingStart++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int count)
+        {
+            var read = 0;
+            while (read < count && (pendingStart < pendingEnd || next())) {
+                var copied = Math.min(count - read, pendingEnd - pendingStart);
+                System.arraycopy(pending, pendingStart, bytes, offset + read, copied);
+                pendingStart += copied;
+                read += copied;
+            }
+            return read == 0 && count > 0 ? -1 : read;
+        }
+
+        /**
+         * Encode the next character of the body in the pending bytes.
+         *
+         * @return false if the end of the body was reached.
+         */
+        boolean next()
+        {
+            while (part < parts.size() && index >= parts.get(part).length()) {
+                part++;
+                index = 0;
+            }
+            if (part == parts.size()) {
+                return false;
+            }
+
+            var text = parts.get(part);
+            var c = text.charAt(index++);
+            var entity = escapedParts.get(part) ? getEntity(c) : null;
+            pendingStart = 0;
+            if (entity != null) {
+                System.arraycopy(entity, 0, pending, 0, entity.length);
+                pendingEnd = entity.length;
+            } else if (!Character.isSurrogate(c)) {
+                encode(c);
+            } else if (Character.isHighSurrogate(c) && isLowSurrogate(text, index)) {
+                encode(Character.toCodePoint(c, text.charAt(index++)));
+            } else {
+                // Unpaired surrogate, replaced like String#getBytes does.
+                encode('?');
+            }
+            return true;
+        }
+
+        private void encode(int codePoint)
+        {
+            if (codePoint < 0x80) {
+                pending[0] = (byte) codePoint;
+                pendingEnd = 1;
+            } else if (codePoint < 0x800) {
+                pending[0] = (byte) (0xc0 | codePoint >> 6);
+                pending[1] = (byte) (0x80 | codePoint & 0x3f);
+                pendingEnd = 2;
+            } else if (codePoint < 0x10000) {
+                pending[0] = (byte) (0xe0 | codePoint >> 12);
+                pending[1] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                pending[2] = (byte) (0x80 | codePoint & 0x3f);
+                pendingEnd = 3;
+            } else {
+                pending[0] = (byte) (0xf0 | codePoint >> 18);
+                pending[1] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                pending[2] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                pending[3] = (byte) (0x80 | codePoint & 0x3f);
+                pendingEnd = 4;
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli.document;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Read the text of some top level elements of an XML document in a single forward pass, without building a DOM.
+ * <p>
+ * This is much cheaper than parsing the whole document when only the title or the content of a page is needed, since
+ * the objects and the base64 encoded attachments of the document are skipped instead of being turned into a tree, and
+ * the reading stops as soon as all the requested elements were found.
+ *
+ * @version $Id$
+ */
+final class XMLFieldScanner
+{
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private XMLFieldScanner()
+    {
+        // Static helpers only.
+    }
+
+    /**
+     * @param xml the XML document.
+     * @param names the local names of the children of the root element to read.
+     * @return the text of the first child of the root element with each of the given names, by name. Names without
+     *     such an element are missing from the map. Null if the elements can't be read without a DOM, for instance
+     *     because one of them contains other elements or the document is not well-formed.
+     */
+    static Map<String, String> scan(String xml, Set<String> names)
+    {
+        XMLStreamReader reader = null;
+        try {
+            reader = FACTORY.createXMLStreamReader(new StringReader(xml));
+            return scan(reader, names);
+        } catch (XMLStreamException e) {
+            return null;
+        } finally {
+            close(reader);
+        }
+    }
+
+    /**
+     * @param file the XML document, its encoding is detected from its first bytes as for any XML parser.
+     * @param names the local names of the children of the root element to read.
+     * @return the text of the first child of the root element with each of the given names, by name, or null if they
+     *     can't be read without a DOM, see {@link #scan(String, Set)}.
+     */
+    static Map<String, String> scan(Path file, Set<String> names)
+    {
+        XMLStreamReader reader = null;
+        try (var stream = Files.newInputStream(file)) {
+            reader = FACTORY.createXMLStreamReader(stream);
+            return scan(reader, names);
+        } catch (IOException | XMLStreamException e) {
+            return null;
+        } finally {
+            close(reader);
+        }
+    }
+
+    private static Map<String, String> scan(XMLStreamReader reader, Set<String> names) throws XMLStreamException
+    {
+        var fields = new HashMap<String, String>(names.size());
+        var depth = 0;
+        while (fields.size() < names.size() && reader.hasNext()) {
+            var event = reader.next();
+            if (event == XMLStreamConstants.DTD) {
+                // Let the DOM parser reject the document.
+                return null;
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                var name = reader.getLocalName();
+                if (depth == 2 && names.contains(name) && !fields.containsKey(name)) {
+                    // Reads up to the end of the element.
+                    fields.put(name, reader.getElementText());
+                    depth--;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return fields;
+    }
+
+    private static void close(XMLStreamReader reader)
+    {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                // Nothing else to release.
+            }
+        }
+    }
+
+    private static XMLInputFactory createFactory()
+    {
+        var factory = XMLInputFactory.newFactory();
+        // Same protection as the DOM parser, which doesn't accept doctype declarations.
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+}
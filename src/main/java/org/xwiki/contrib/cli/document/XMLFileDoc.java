@@ -20,18 +20,28 @@
 
 package org.xwiki.contrib.cli.document;
 
-import java.io.FileOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.dom4j.Document;
 import org.dom4j.Element;
-import org.dom4j.io.OutputFormat;
-import org.dom4j.io.XMLWriter;
+import org.dom4j.Node;
 import org.xwiki.contrib.cli.Command;
 import org.xwiki.contrib.cli.DocException;
+import org.xwiki.contrib.cli.document.element.AttachmentInfo;
 
 /**
  * This class represents a "XAR" XML file.
@@ -40,12 +50,34 @@ import org.xwiki.contrib.cli.DocException;
  */
 public class XMLFileDoc extends AbstractXMLDoc implements InputDoc, OutputDoc
 {
-    private static final String NODE_FILENAME = "filename";
+    static final String CANT_FIND_ATTACHMENT = "Can't find attachment with name '%s'";
+
+    private static final String XPATH_ATTACHMENT_NAMED = "attachment[filename = $name]";
 
     private static final String NODE_CONTENT = "content";
 
     private String filename;
 
+    private XARFileIndex fileIndex;
+
+    private boolean fileIndexed;
+
+    /**
+     * The content of the attachments which is not held in the DOM, by content element.
+     */
+    private final Map<Element, AttachmentContent> attachmentContents = new IdentityHashMap<>();
+
+    /**
+     * The elements parsed from the file which were changed since, written in place of the regions they were parsed
+     * from when the document is saved.
+     */
+    private final Set<Element> changedElements = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * Whether the file has to be written as a whole, because some changes can't be written in place.
+     */
+    private boolean rewrite;
+
     XMLFileDoc(Command cmd)
     {
         super(cmd);
@@ -62,33 +94,81 @@ public class XMLFileDoc extends AbstractXMLDoc implements InputDoc, OutputDoc
     public XMLFileDoc(Command cmd, String filename) throws DocException, IOException
     {
         super(cmd);
-        setXML(Files.readString(Path.of(filename)), false);
+        var file = Path.of(filename);
+        if (!Files.exists(file)) {
+            throw new NoSuchFileException(filename);
+        }
+        setXMLFile(file);
         this.filename = filename;
     }
 
     @Override
     public void save() throws DocException
     {
-        if (xml == null) {
-            if (dom == null) {
-                throw new DocException("Nothing to save");
-            }
+        var file = Path.of(filename);
+        if (fileIndex != null && fileIndex.isModified(file)) {
+            // The changes can't be merged, and the content still read from the previous file may be gone.
+            reload(file);
+            throw new DocException("The file [" + filename + "] was modified by another program since it was read");
         }
-        OutputFormat outFormat = OutputFormat.createCompactFormat();
-        outFormat.setTrimText(false);
-        outFormat.setEncoding("utf-8");
-        outFormat.setExpandEmptyElements(false);
-        outFormat.setOmitEncoding(true);
-        outFormat.setSuppressDeclaration(true);
         try {
-            var out = new FileOutputStream(filename);
-            out.write("<?xml version=\"1.1\" encoding=\"UTF-8\"?>\n\n".getBytes(Charset.forName("UTF-8")));
-            XMLWriter writer = new XMLWriter(out, outFormat);
-            writer.write(dom);
-            writer.flush();
+            if (fileIndex != null && !rewrite) {
+                // Only the changes are written, and the DOM is not parsed if they were made without it.
+                XMLFileWriter.patch(fileIndex, changedElements, attachmentContents, file);
+            } else {
+                var domdoc = getDom();
+                if (domdoc == null) {
+                    throw new DocException("Nothing to save");
+                }
+                XMLFileWriter.write(domdoc, attachmentContents, file);
+            }
         } catch (IOException e) {
             throw new DocException(e);
         }
+
+        if (fileIndex != null) {
+            // The offsets of the index don't match the saved file anymore.
+            reload(file);
+        }
+        changedElements.clear();
+        rewrite = false;
+    }
+
+    /**
+     * Forget the index of the file and what was read from it, so the file is read again when needed.
+     */
+    private void reload(Path file)
+    {
+        attachmentContents.clear();
+        changedElements.clear();
+        rewrite = false;
+        fileIndexed = false;
+        fileIndex = null;
+        setXMLFile(file);
+    }
+
+    @Override
+    protected Document getDom() throws DocException
+    {
+        var index = dom == null ? getFileIndex() : null;
+        if (index != null) {
+            // The content of the attachments stays in the file until it is needed.
+            var contents = new IdentityHashMap<Element, AttachmentContent>();
+            setDom(index.parseDocument(contents, changedElements), false);
+            contents.forEach(this::setContent);
+        }
+        return super.getDom();
+    }
+
+    @Override
+    protected void changed(Element element)
+    {
+        var source = fileIndex == null ? null : fileIndex.getSourceElement(element);
+        if (source == null) {
+            rewrite = true;
+        } else {
+            changedElements.add(source);
+        }
     }
 
     @Override
@@ -98,30 +178,143 @@ public class XMLFileDoc extends AbstractXMLDoc implements InputDoc, OutputDoc
         if (domdoc == null) {
             throw new DocumentNotFoundException();
         }
-        var root = (Element) domdoc.getRootElement();
-        var attachments = root.selectNodes(NODE_NAME_ATTACHMENT);
-        for (var attachment : attachments) {
-            if (attachmentName.equals(getElement((Element) attachment, NODE_FILENAME).getText())) {
-                getElement((Element) attachment, NODE_CONTENT).setText(Base64.getEncoder().encodeToString(content));
-            }
+        var root = domdoc.getRootElement();
+        for (var attachment : XPathCache.selectNodes(root, XPATH_ATTACHMENT_NAMED, attachmentName)) {
+            var contentElement = getElement((Element) attachment, NODE_CONTENT);
+            attachmentContents.remove(contentElement);
+            contentElement.setText(Base64.getEncoder().encodeToString(content));
+            changed(contentElement);
         }
     }
 
     @Override
-    public byte[] getAttachment(String attachmentName) throws DocException
+    public void setAttachment(String attachmentName, Path file) throws DocException
     {
+        // The file is only read, and encoded as it is read, when the document is saved.
         var domdoc = getDom();
         if (domdoc == null) {
             throw new DocumentNotFoundException();
         }
         var root = domdoc.getRootElement();
-        var attachments = root.selectNodes(NODE_NAME_ATTACHMENT);
-        for (var attachment : attachments) {
-            if (attachmentName.equals(getElement((Element) attachment, NODE_FILENAME).getText())) {
-                return Base64.getDecoder().decode(getElement((Element) attachment, NODE_CONTENT).getText());
+        for (var attachment : XPathCache.selectNodes(root, XPATH_ATTACHMENT_NAMED, attachmentName)) {
+            var contentElement = getElement((Element) attachment, NODE_CONTENT);
+            setContent(contentElement, AttachmentContent.of(file));
+            changed(contentElement);
+        }
+    }
+
+    private void setContent(Element contentElement, AttachmentContent content)
+    {
+        // An empty text rather than no text at all, so the element is not written as an empty element.
+        contentElement.setText("");
+        attachmentContents.put(contentElement, content);
+    }
+
+    @Override
+    public byte[] getAttachment(String attachmentName) throws DocException
+    {
+        try (var attachment = openAttachment(attachmentName)) {
+            if (attachment != null) {
+                return attachment.readAllBytes();
             }
+        } catch (IOException e) {
+            throw new DocException(e);
+        }
+        throw new DocException(String.format(CANT_FIND_ATTACHMENT, attachmentName));
+    }
+
+    @Override
+    public InputStream openAttachment(String attachmentName) throws DocException
+    {
+        var index = getFileIndex();
+        if (index != null) {
+            return index.openAttachment(attachmentName);
+        }
+
+        var domdoc = getDom();
+        if (domdoc == null) {
+            throw new DocumentNotFoundException();
+        }
+        var attachment = (Element) XPathCache.selectSingleNode(domdoc.getRootElement(), XPATH_ATTACHMENT_NAMED,
+            attachmentName);
+        if (attachment == null) {
+            return null;
+        }
+
+        var contentElement = getElement(attachment, NODE_CONTENT);
+        if (contentElement == null) {
+            return InputStream.nullInputStream();
+        }
+        var content = attachmentContents.get(contentElement);
+        try {
+            // The mime decoder ignores the line breaks.
+            return content != null ? content.open() : Base64.getMimeDecoder()
+                .wrap(new ByteArrayInputStream(contentElement.getText().getBytes(StandardCharsets.US_ASCII)));
+        } catch (IOException e) {
+            throw new DocException(e);
+        }
+    }
+
+    @Override
+    public byte[] getAttachment(String attachmentName, long offset, int length) throws DocException
+    {
+        try (var attachment = openAttachment(attachmentName)) {
+            if (attachment == null) {
+                return null;
+            }
+            // Only the bytes up to the end of the range are decoded.
+            attachment.skipNBytes(offset);
+            return attachment.readNBytes(length);
+        } catch (EOFException e) {
+            return new byte[0];
+        } catch (IOException e) {
+            throw new DocException(e);
+        }
+    }
+
+    @Override
+    public Collection<AttachmentInfo> getAttachments() throws DocException
+    {
+        var index = getFileIndex();
+        return index != null ? index.getAttachments() : super.getAttachments();
+    }
+
+    @Override
+    public String getReference() throws DocException
+    {
+        var index = getFileIndex();
+        if (index != null) {
+            return XPathCache.valueOf(index.getRootElement().getDocument(), XPATH_REFERENCE);
+        }
+        return super.getReference();
+    }
+
+    @Override
+    protected List<Node> getObjectNodes() throws DocException
+    {
+        var index = getFileIndex();
+        return index != null ? index.getObjects() : super.getObjectNodes();
+    }
+
+    /**
+     * @return the index of the file, as long as the file doesn't need to be parsed as a whole, null otherwise.
+     */
+    private XARFileIndex getFileIndex() throws DocException
+    {
+        if (dom != null || filename == null) {
+            // Once parsed, the DOM is the reference. The index is only kept to save the changes in place.
+            return null;
+        }
+
+        if (fileIndex != null && changedElements.isEmpty() && !rewrite && fileIndex.isModified(Path.of(filename))) {
+            // Nothing was changed yet: read the current content rather than fail when saving.
+            reload(Path.of(filename));
+        }
+        if (!fileIndexed) {
+            fileIndexed = true;
+            fileIndex = XARFileIndex.open(Path.of(filename));
         }
-        throw new DocException(String.format("Can't find attachment with name '%s'", attachmentName));
+        return fileIndex;
     }
 
     @Override
@@ -0,0 +1,200 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli.document;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.Collection;
+import java.util.Map;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.dom4j.io.OutputFormat;
+import org.dom4j.io.XMLWriter;
+
+/**
+ * Write an exported XML document to a file, along with the content of the attachments which is not held in its DOM.
+ *
+ * @version $Id$
+ */
+final class XMLFileWriter
+{
+    private static final byte[] DECLARATION =
+        "<?xml version=\"1.1\" encoding=\"UTF-8\"?>\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private XMLFileWriter()
+    {
+        // Utility class.
+    }
+
+    private static OutputFormat getFormat()
+    {
+        OutputFormat outFormat = OutputFormat.createCompactFormat();
+        outFormat.setTrimText(false);
+        outFormat.setEncoding("utf-8");
+        outFormat.setExpandEmptyElements(false);
+        outFormat.setOmitEncoding(true);
+        outFormat.setSuppressDeclaration(true);
+        return outFormat;
+    }
+
+    /**
+     * @param document the document to write.
+     * @param attachmentContents the content of the attachments, by content element, which is not held in the DOM.
+     * @param file the file to write.
+     * @throws IOException if the file or the content of an attachment can't be read or written.
+     */
+    static void write(Document document, Map<Element, AttachmentContent> attachmentContents, Path file)
+        throws IOException
+    {
+        replace(file, channel -> {
+            var out = new BufferedOutputStream(Channels.newOutputStream(channel));
+            out.write(DECLARATION);
+            var writer = new AttachmentWriter(out, attachmentContents);
+            writer.write(document);
+            writer.flush();
+            out.flush();
+        });
+    }
+
+    /**
+     * Write the given elements in place of the regions of the file they were parsed from, and copy the rest of the
+     * file as is.
+     *
+     * @param index the index of the file.
+     * @param elements the changed elements, as returned by {@link XARFileIndex#getSourceElement(Element)}.
+     * @param attachmentContents the content of the attachments, by content element, which is not held in the DOM.
+     * @param file the file to write, the one which was indexed.
+     * @throws IOException if the file or the content of an attachment can't be read or written.
+     */
+    static void patch(XARFileIndex index, Collection<Element> elements,
+        Map<Element, AttachmentContent> attachmentContents, Path file) throws IOException
+    {
+        replace(file, channel -> index.writePatched(elements, channel, (element, out) -> {
+            var writer = new AttachmentWriter(out, attachmentContents);
+            writer.write(element);
+            writer.flush();
+        }));
+    }
+
+    /**
+     * Write a temporary file next to the given one, then rename it over the given file. The file is never seen half
+     * written, and the previous file can still be read while the new one is written.
+     * <p>
+     * The file gets a new inode: its permissions, owner and group are copied when allowed, but other hard links to the
+     * previous file keep its previous content.
+     */
+    private static void replace(Path file, ChannelWriter write) throws IOException
+    {
+        // The actual file is replaced, not a link to it.
+        var target = Files.exists(file) ? file.toRealPath() : file.toAbsolutePath();
+        var tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (var channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                write.write(channel);
+                // The content must be on disk before the rename is, or a crash could leave an empty file.
+                channel.force(true);
+            }
+            copyAttributes(target, tmp);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory(target.getParent());
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void copyAttributes(Path from, Path to) throws IOException
+    {
+        var view = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+        if (view == null || !Files.exists(from)) {
+            return;
+        }
+        var attributes = view.readAttributes();
+        var toView = Files.getFileAttributeView(to, PosixFileAttributeView.class);
+        toView.setPermissions(attributes.permissions());
+        var toAttributes = toView.readAttributes();
+        try {
+            if (!attributes.group().equals(toAttributes.group())) {
+                toView.setGroup(attributes.group());
+            }
+            if (!attributes.owner().equals(toAttributes.owner())) {
+                toView.setOwner(attributes.owner());
+            }
+        } catch (FileSystemException e) {
+            // Only a privileged user can give the file to someone else: it then belongs to the current user.
+        }
+    }
+
+    private static void syncDirectory(Path directory)
+    {
+        try (var channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not all platforms allow to open or sync a directory, the rename is then as durable as it can be.
+        }
+    }
+
+    /**
+     * Write a file.
+     */
+    @FunctionalInterface
+    private interface ChannelWriter
+    {
+        void write(FileChannel channel) throws IOException;
+    }
+
+    /**
+     * Write the content of the attachments which is not held in the DOM along with the document.
+     */
+    private static final class AttachmentWriter extends XMLWriter
+    {
+        private final Map<Element, AttachmentContent> attachmentContents;
+
+        AttachmentWriter(OutputStream out, Map<Element, AttachmentContent> attachmentContents)
+            throws UnsupportedEncodingException
+        {
+            super(out, getFormat());
+            this.attachmentContents = attachmentContents;
+        }
+
+        @Override
+        protected void writeElementContent(Element element) throws IOException
+        {
+            var content = attachmentContents.get(element);
+            if (content == null) {
+                super.writeElementContent(element);
+            } else {
+                content.writeBase64(writer);
+            }
+        }
+    }
+}
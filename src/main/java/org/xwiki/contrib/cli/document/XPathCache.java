@@ -0,0 +1,155 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli.document;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.dom4j.Node;
+import org.dom4j.XPath;
+import org.jaxen.UnresolvableException;
+
+/**
+ * Evaluate XPath expressions without parsing them again each time.
+ * <p>
+ * Expressions are compiled once and shared. Instead of being formatted into the expression, values are bound to the
+ * {@code $name} variable, so the same compiled expression serves every value and values don't need to be escaped.
+ * The {@code xwiki} prefix is bound to the XWiki REST namespace whatever the namespaces declared in the document.
+ *
+ * @version $Id$
+ */
+final class XPathCache
+{
+    private static final String NAME_VARIABLE = "name";
+
+    private static final Map<String, String> NAMESPACES = Map.of("xwiki", "http://www.xwiki.org");
+
+    private static final Map<String, XPath> COMPILED = new ConcurrentHashMap<>();
+
+    /**
+     * The value of the {@code $name} variable for the evaluation in progress in the current thread, so compiled
+     * expressions can be evaluated concurrently.
+     */
+    private static final ThreadLocal<String> NAME = new ThreadLocal<>();
+
+    private XPathCache()
+    {
+        // Static helpers only.
+    }
+
+    /**
+     * @param context the node to evaluate the expression from.
+     * @param expression the XPath expression.
+     * @return the nodes selected by the expression.
+     */
+    static List<Node> selectNodes(Node context, String expression)
+    {
+        return selectNodes(context, expression, null);
+    }
+
+    /**
+     * @param context the node to evaluate the expression from.
+     * @param expression the XPath expression, using the {@code $name} variable.
+     * @param name the value of the {@code $name} variable.
+     * @return the nodes selected by the expression.
+     */
+    static List<Node> selectNodes(Node context, String expression, String name)
+    {
+        NAME.set(name);
+        try {
+            return get(expression).selectNodes(context);
+        } finally {
+            NAME.remove();
+        }
+    }
+
+    /**
+     * @param context the node to evaluate the expression from.
+     * @param expression the XPath expression, using the {@code $name} variable.
+     * @param name the value of the {@code $name} variable.
+     * @return the first node selected by the expression, null if there is none.
+     */
+    static Node selectSingleNode(Node context, String expression, String name)
+    {
+        NAME.set(name);
+        try {
+            return get(expression).selectSingleNode(context);
+        } finally {
+            NAME.remove();
+        }
+    }
+
+    /**
+     * @param context the node to evaluate the expression from.
+     * @param expression the XPath expression.
+     * @return the string value of the expression.
+     */
+    static String valueOf(Node context, String expression)
+    {
+        return get(expression).valueOf(context);
+    }
+
+    /**
+     * Find a child element by its local name, whether it is in the XWiki REST namespace or in no namespace, as in
+     * exported XAR documents.
+     *
+     * @param parent the parent element.
+     * @param name the local name of the child element.
+     * @return the first child element with this name, null if there is none.
+     */
+    static Element getChild(Element parent, String name)
+    {
+        for (var child : parent.elements()) {
+            if (name.equals(child.getName())) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param parent the parent element.
+     * @param name the local name of the child elements.
+     * @return the child elements with this name, whether they are in the XWiki REST namespace or in no namespace.
+     */
+    static List<Element> getChildren(Element parent, String name)
+    {
+        return parent.elements().stream().filter(child -> name.equals(child.getName())).toList();
+    }
+
+    private static XPath get(String expression)
+    {
+        return COMPILED.computeIfAbsent(expression, e -> {
+            var xpath = DocumentHelper.createXPath(e);
+            xpath.setNamespaceURIs(NAMESPACES);
+            xpath.setVariableContext((namespaceURI, prefix, localName) -> {
+                if (!NAME_VARIABLE.equals(localName)) {
+                    throw new UnresolvableException("Unknown variable $" + localName);
+                }
+                return NAME.get();
+            });
+            return xpath;
+        });
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit tests for {@link DecodingBodySubscriber}.
+ *
+ * @version $Id$
+ */
+class DecodingBodySubscriberTest
+{
+    private static final byte[] BODY =
+        "<page><content>Hello world, hello world, hello world</content></page>".repeat(100)
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static final int GZIP_FEXTRA = 4;
+
+    private static final int GZIP_FNAME = 8;
+
+    private static final int GZIP_FCOMMENT = 16;
+
+    private static final int GZIP_FHCRC = 2;
+
+    @Test
+    void identity() throws Exception
+    {
+        assertArrayEquals(BODY, decode(null, BODY, 7));
+    }
+
+    @Test
+    void gzip() throws Exception
+    {
+        var encoded = gzip(BODY);
+        assertArrayEquals(BODY, decode("gzip", encoded, encoded.length));
+        assertArrayEquals(BODY, decode("x-gzip", encoded, 100));
+    }
+
+    @Test
+    void gzipSplitByteByByte() throws Exception
+    {
+        var encoded = gzip(BODY);
+        assertArrayEquals(BODY, decode("gzip", encoded, 1));
+    }
+
+    @Test
+    void gzipWithOptionalHeaderFieldsSplitAcrossChunks() throws Exception
+    {
+        var encoded = gzipWithHeaderFields(BODY);
+        // Every split of the header between two chunks.
+        for (var chunkSize = 1; chunkSize < 40; chunkSize++) {
+            assertArrayEquals(BODY, decode("gzip", encoded, chunkSize), "Chunks of " + chunkSize + " bytes");
+        }
+    }
+
+    @Test
+    void gzipWithWrongCRC()
+    {
+        var encoded = gzip(BODY);
+        encoded[encoded.length - 8] ^= 1;
+
+        var exception = assertThrows(ExecutionException.class, () -> decode("gzip", encoded, 64));
+        assertInstanceOf(ZipException.class, exception.getCause());
+    }
+
+    @Test
+    void gzipWithWrongSize()
+    {
+        var encoded = gzip(BODY);
+        encoded[encoded.length - 1] ^= 1;
+
+        var exception = assertThrows(ExecutionException.class, () -> decode("gzip", encoded, encoded.length));
+        assertInstanceOf(ZipException.class, exception.getCause());
+    }
+
+    @Test
+    void gzipWithWrongMagic()
+    {
+        var encoded = gzip(BODY);
+        encoded[0] = 0;
+
+        var exception = assertThrows(ExecutionException.class, () -> decode("gzip", encoded, encoded.length));
+        assertInstanceOf(ZipException.class, exception.getCause());
+    }
+
+    @Test
+    void truncatedGzip()
+    {
+        var encoded = gzip(BODY);
+        var truncated = Arrays.copyOf(encoded, encoded.length - 4);
+
+        var exception = assertThrows(ExecutionException.class, () -> decode("gzip", truncated, 16));
+        assertInstanceOf(EOFException.class, exception.getCause());
+    }
+
+    @Test
+    void zlibWrappedDeflate() throws Exception
+    {
+        var output = new ByteArrayOutputStream();
+        try (var deflater = new DeflaterOutputStream(output)) {
+            deflater.write(BODY);
+        }
+        assertArrayEquals(BODY, decode("deflate", output.toByteArray(), 1));
+    }
+
+    @Test
+    void rawDeflate() throws Exception
+    {
+        assertArrayEquals(BODY, decode("deflate", rawDeflate(BODY), 3));
+    }
+
+    private static byte[] decode(String contentEncoding, byte[] encoded, int chunkSize) throws Exception
+    {
+        var headers = contentEncoding == null
+            ? Map.<String, List<String>>of()
+            : Map.of("Content-Encoding", List.of(contentEncoding));
+        HttpResponse.ResponseInfo responseInfo = new HttpResponse.ResponseInfo()
+        {
+            @Override
+            public int statusCode()
+            {
+                return 200;
+            }
+
+            @Override
+            public HttpHeaders headers()
+            {
+                return HttpHeaders.of(headers, (name, value) -> true);
+            }
+
+            @Override
+            public HttpClient.Version version()
+            {
+                return HttpClient.Version.HTTP_1_1;
+            }
+        };
+
+        var subscriber =
+            DecodingBodySubscriber.decoding(HttpResponse.BodyHandlers.ofByteArray()).apply(responseInfo);
+        var cancelled = new boolean[1];
+        subscriber.onSubscribe(new Flow.Subscription()
+        {
+            @Override
+            public void request(long n)
+            {
+                // The whole body is pushed anyway.
+            }
+
+            @Override
+            public void cancel()
+            {
+                cancelled[0] = true;
+            }
+        });
+
+        for (var offset = 0; offset < encoded.length && !cancelled[0]; offset += chunkSize) {
+            var length = Math.min(chunkSize, encoded.length - offset);
+            subscriber.onNext(List.of(ByteBuffer.wrap(encoded, offset, length).slice()));
+        }
+        if (!cancelled[0]) {
+            subscriber.onComplete();
+        }
+
+        return subscriber.getBody().toCompletableFuture().get();
+    }
+
+    private static byte[] gzip(byte[] bytes)
+    {
+        var output = new ByteArrayOutputStream();
+        try (var gzip = new GZIPOutputStream(output)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * @return the given bytes gzip encoded with an extra field, a file name, a comment and a header CRC.
+     */
+    private static byte[] gzipWithHeaderFields(byte[] bytes)
+    {
+        var output = new ByteArrayOutputStream();
+        output.writeBytes(new byte[] {
+            0x1f, (byte) 0x8b, 8, GZIP_FEXTRA | GZIP_FNAME | GZIP_FCOMMENT | GZIP_FHCRC, 0, 0, 0, 0, 0, 3
+        });
+        output.writeBytes(new byte[] {5, 0, 'e', 'x', 't', 'r', 'a'});
+        output.writeBytes("page.xml\0".getBytes(StandardCharsets.US_ASCII));
+        output.writeBytes("a comment\0".getBytes(StandardCharsets.US_ASCII));
+        // The header CRC isn't checked.
+        output.writeBytes(new byte[] {0, 0});
+        output.writeBytes(rawDeflate(bytes));
+
+        var crc = new CRC32();
+        crc.update(bytes);
+        writeInt(output, crc.getValue());
+        writeInt(output, bytes.length);
+        return output.toByteArray();
+    }
+
+    private static byte[] rawDeflate(byte[] bytes)
+    {
+        var deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(bytes);
+        deflater.finish();
+        var output = new ByteArrayOutputStream();
+        var buffer = new byte[1024];
+        while (!deflater.finished()) {
+            output.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return output.toByteArray();
+    }
+
+    private static void writeInt(ByteArrayOutputStream output, long value)
+    {
+        for (var i = 0; i < 4; i++) {
+            output.write((int) (value >>> (8 * i)) & 0xff);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link FSPath}.
+ *
+ * @version $Id$
+ */
+class FSPathTest
+{
+    private static final String PAGE = "/wikis/xwiki/spaces/Main/spaces/Sub/pages/WebHome";
+
+    @ParameterizedTest
+    @CsvSource({
+        "/, ROOT",
+        "/wikis, WIKIS",
+        "/wikis/xwiki, WIKI",
+        "/wikis/xwiki/spaces, SPACES",
+        "/wikis/xwiki/spaces/Main, SPACE",
+        "/wikis/xwiki/spaces/Main/spaces, SPACES",
+        "/wikis/xwiki/spaces/Main/pages, PAGES",
+        "/wikis/xwiki/classes, CLASSES",
+        "/wikis/xwiki/classes/XWiki.StyleSheetExtension, CLASS_LINK",
+        PAGE + ", PAGE",
+        PAGE + "/content, CONTENT",
+        PAGE + "/content.xwiki, CONTENT_LINK",
+        PAGE + "/title, TITLE",
+        PAGE + "/attachments, ATTACHMENTS",
+        PAGE + "/attachments/logo.png, ATTACHMENT",
+        PAGE + "/class, CLASS",
+        PAGE + "/class/properties, CLASS_PROPERTIES",
+        PAGE + "/class/properties/code, CLASS_PROPERTY",
+        PAGE + "/class/properties/code/prettyName, CLASS_ATTRIBUTE",
+        PAGE + "/class/properties/code/prettyName.txt, PROPERTY_LINK",
+        PAGE + "/objects, OBJECTS",
+        PAGE + "/objects/XWiki.StyleSheetExtension, OBJECT_CLASS",
+        PAGE + "/objects/XWiki.StyleSheetExtension/0, OBJECT",
+        PAGE + "/objects/XWiki.StyleSheetExtension/0/properties, OBJECT_PROPERTIES",
+        PAGE + "/objects/XWiki.StyleSheetExtension/0/properties/code, OBJECT_PROPERTY",
+        PAGE + "/objects/XWiki.StyleSheetExtension/0/properties/code.css, PROPERTY_LINK"
+    })
+    void type(String path, FSPath.Type type)
+    {
+        assertEquals(type, FSPath.parse(path).getType());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "",
+        "wikis",
+        "/other",
+        "/wikis/xwiki/other",
+        "/wikis/xwiki/spaces/Main/other",
+        "/wikis//spaces",
+        PAGE + "/other",
+        PAGE + "/title/other",
+        PAGE + "/attachments/logo.png/other",
+        PAGE + "/objects/XWiki.StyleSheetExtension/0/other",
+        PAGE + "/objects/XWiki.StyleSheetExtension/0/properties/code/other"
+    })
+    void unknown(String path)
+    {
+        assertEquals(FSPath.Type.UNKNOWN, FSPath.parse(path).getType());
+        assertEquals(FSPath.Kind.NONE, FSPath.parse(path).getType().getKind());
+    }
+
+    @Test
+    void trailingSlashIsIgnored()
+    {
+        assertEquals(FSPath.Type.WIKIS, FSPath.parse("/wikis/").getType());
+    }
+
+    @Test
+    void page()
+    {
+        var path = FSPath.parse(PAGE + "/objects/XWiki.StyleSheetExtension/1/properties/code");
+
+        assertEquals("xwiki", path.getWiki());
+        assertEquals("Main.Sub", path.getSpaceReference());
+        assertTrue(path.isInPage());
+        assertEquals("Main.Sub.WebHome", path.getPageReference());
+        assertEquals(PAGE, path.getPagePath());
+        assertEquals("XWiki.StyleSheetExtension", path.getObjectClass());
+        assertEquals("1", path.getObjectNumber());
+        assertEquals("code", path.getName());
+        assertEquals(PAGE + "/objects/XWiki.StyleSheetExtension/1/properties", path.getParentPath());
+    }
+
+    @Test
+    void notInPage()
+    {
+        var path = FSPath.parse("/wikis/xwiki/spaces/Main");
+
+        assertFalse(path.isInPage());
+        assertEquals("Main", path.getSpaceReference());
+        assertNull(path.getObjectClass());
+        assertEquals("", FSPath.parse("/wikis/xwiki").getSpaceReference());
+    }
+
+    @Test
+    void dotsInNamesAreEscapedInReferences()
+    {
+        var path = FSPath.parse("/wikis/xwiki/spaces/a.b/pages/c.d/title");
+
+        assertEquals(FSPath.Type.TITLE, path.getType());
+        assertEquals("a\\.b", path.getSpaceReference());
+        assertEquals("a\\.b.c\\.d", path.getPageReference());
+    }
+
+    @Test
+    void linkNameIsWithoutExtension()
+    {
+        var path = FSPath.parse(PAGE + "/objects/XWiki.JavaScriptExtension/0/properties/code.min.js");
+
+        assertEquals(FSPath.Type.PROPERTY_LINK, path.getType());
+        assertEquals("code.min", path.getName());
+    }
+
+    @Test
+    void nameWithExtensionWhichIsNotALink()
+    {
+        // Attachments and pages are never links, whatever their name.
+        assertEquals(FSPath.Type.ATTACHMENT, FSPath.parse(PAGE + "/attachments/content.txt").getType());
+        assertEquals("content.txt", FSPath.parse(PAGE + "/attachments/content.txt").getName());
+        assertEquals(FSPath.Type.PAGE, FSPath.parse("/wikis/xwiki/spaces/Main/pages/Web.Home").getType());
+        assertEquals(FSPath.Type.UNKNOWN, FSPath.parse(PAGE + "/title.txt").getType());
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link HTTPResponseCache}.
+ *
+ * @version $Id$
+ */
+class HTTPResponseCacheTest
+{
+    private static final String PAGE = "http://wiki/rest/wikis/xwiki/spaces/Main/pages/WebHome";
+
+    private static final String ETAG = "ETag";
+
+    private static final String ETAG_VALUE = "\"1\"";
+
+    private final HTTPResponseCache cache = new HTTPResponseCache();
+
+    @Test
+    void revalidatesWithETag()
+    {
+        cache.put(response(PAGE, new byte[] {1}, ETAG, ETAG_VALUE), cache.getGeneration());
+
+        var builder = HttpRequest.newBuilder(URI.create(PAGE));
+        var cached = cache.addValidators(URI.create(PAGE), builder);
+        assertNotNull(cached);
+        assertEquals(ETAG_VALUE, builder.build().headers().firstValue("If-None-Match").orElse(null));
+    }
+
+    @Test
+    void revalidatesWithLastModified()
+    {
+        var lastModified = "Sat, 17 Oct 2026 10:00:00 GMT";
+        cache.put(response(PAGE, new byte[] {1}, "Last-Modified", lastModified), cache.getGeneration());
+
+        var builder = HttpRequest.newBuilder(URI.create(PAGE));
+        assertNotNull(cache.addValidators(URI.create(PAGE), builder));
+        assertEquals(lastModified, builder.build().headers().firstValue("If-Modified-Since").orElse(null));
+    }
+
+    @Test
+    void doesNotKeepResponsesWhichCanNotBeRevalidated()
+    {
+        cache.put(response(PAGE, new byte[] {1}), cache.getGeneration());
+        assertNull(get(PAGE));
+
+        cache.put(response(PAGE, new byte[] {1}, ETAG, ETAG_VALUE, "Cache-Control", "no-store"),
+            cache.getGeneration());
+        assertNull(get(PAGE));
+
+        cache.put(response(PAGE, new byte[HTTPResponseCache.MAX_ENTRY_SIZE + 1], ETAG, ETAG_VALUE),
+            cache.getGeneration());
+        assertNull(get(PAGE));
+    }
+
+    @Test
+    void dropsTheEncodingOfTheDecodedBody()
+    {
+        cache.put(response(PAGE, new byte[] {1, 2, 3}, ETAG, ETAG_VALUE, "Content-Encoding", "gzip",
+            "Content-Length", "23"), cache.getGeneration());
+
+        var headers = get(PAGE).headers();
+        assertTrue(headers.firstValue("Content-Encoding").isEmpty());
+        assertTrue(headers.firstValue("Content-Length").isEmpty());
+        assertEquals(ETAG_VALUE, headers.firstValue(ETAG).orElse(null));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntries()
+    {
+        // 8 entries of the maximum size fill the cache.
+        var body = new byte[HTTPResponseCache.MAX_ENTRY_SIZE];
+        for (var i = 0; i < 8; i++) {
+            cache.put(response(PAGE + i, body, ETAG, ETAG_VALUE), cache.getGeneration());
+        }
+        assertNotNull(get(PAGE + 0));
+
+        cache.put(response(PAGE + 8, body, ETAG, ETAG_VALUE), cache.getGeneration());
+
+        assertNotNull(get(PAGE + 0));
+        assertNull(get(PAGE + 1));
+        for (var i = 2; i <= 8; i++) {
+            assertNotNull(get(PAGE + i));
+        }
+    }
+
+    @Test
+    void replacesTheEntryOfTheSameURI()
+    {
+        cache.put(response(PAGE, new byte[] {1}, ETAG, ETAG_VALUE), cache.getGeneration());
+        cache.put(response(PAGE, new byte[] {2}, ETAG, "\"2\""), cache.getGeneration());
+
+        assertEquals(2, get(PAGE).body()[0]);
+    }
+
+    @Test
+    void invalidatesRelatedResources()
+    {
+        var objects = PAGE + "/objects";
+        var property = PAGE + "/objects/XWiki.StyleSheetExtension/0/properties/code";
+        var otherPage = "http://wiki/rest/wikis/xwiki/spaces/Main/pages/Other";
+        for (var uri : List.of(PAGE, PAGE + "?objects=true", objects, property, otherPage)) {
+            cache.put(response(uri, new byte[] {1}, ETAG, ETAG_VALUE), cache.getGeneration());
+        }
+
+        cache.invalidate(URI.create(objects + "/XWiki.StyleSheetExtension/0"));
+
+        // The page and the object list contain the object, the property is part of it.
+        assertNull(get(PAGE));
+        assertNull(get(PAGE + "?objects=true"));
+        assertNull(get(objects));
+        assertNull(get(property));
+        assertNotNull(get(otherPage));
+    }
+
+    @Test
+    void doesNotKeepResponsesToRequestsSentBeforeAnInvalidation()
+    {
+        var generation = cache.getGeneration();
+        cache.invalidate(URI.create(PAGE));
+
+        // Sent before the page was modified, the response may be stale.
+        cache.put(response(PAGE, new byte[] {1}, ETAG, ETAG_VALUE), generation);
+        assertNull(get(PAGE));
+
+        // Unrelated resources are not affected.
+        var otherPage = "http://wiki/rest/wikis/xwiki/spaces/Main/pages/Other";
+        cache.put(response(otherPage, new byte[] {1}, ETAG, ETAG_VALUE), generation);
+        assertNotNull(get(otherPage));
+
+        cache.put(response(PAGE, new byte[] {1}, ETAG, ETAG_VALUE), cache.getGeneration());
+        assertNotNull(get(PAGE));
+    }
+
+    @Test
+    void doesNotKeepResponsesToRequestsOlderThanTheRememberedInvalidations()
+    {
+        var generation = cache.getGeneration();
+        for (var i = 0; i < 2000; i++) {
+            cache.invalidate(URI.create("http://wiki/rest/other" + i));
+        }
+
+        cache.put(response(PAGE, new byte[] {1}, ETAG, ETAG_VALUE), generation);
+        assertNull(get(PAGE));
+    }
+
+    private HttpResponse<byte[]> get(String uri)
+    {
+        return cache.addValidators(URI.create(uri), HttpRequest.newBuilder(URI.create(uri)));
+    }
+
+    private static HttpResponse<byte[]> response(String uri, byte[] body, String... headers)
+    {
+        var headerMap = new HashMap<String, List<String>>();
+        for (var i = 0; i < headers.length; i += 2) {
+            headerMap.put(headers[i], List.of(headers[i + 1]));
+        }
+        return new SimpleHttpResponse<>(200, HttpRequest.newBuilder(URI.create(uri)).build(),
+            HttpHeaders.of(Map.copyOf(headerMap), (name, value) -> true), body, URI.create(uri),
+            HttpClient.Version.HTTP_1_1);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link RequestScheduler}.
+ *
+ * @version $Id$
+ */
+class RequestSchedulerTest
+{
+    private static final URI WIKI = URI.create("http://wiki.example.org/rest");
+
+    private static final URI OTHER_WIKI = URI.create("http://other.example.org/rest");
+
+    private static final int MAX_IN_FLIGHT = 8;
+
+    private RequestScheduler scheduler;
+
+    /**
+     * The requests started by the scheduler, in the order they were started.
+     */
+    private List<CompletableFuture<HttpResponse<byte[]>>> started;
+
+    @BeforeEach
+    void setUp()
+    {
+        scheduler = new RequestScheduler();
+        scheduler.setMaxInFlight(MAX_IN_FLIGHT);
+        started = new ArrayList<>();
+    }
+
+    @Test
+    void startsAtMostTheLimit()
+    {
+        var responses = submit(WIKI, 12);
+        assertEquals(MAX_IN_FLIGHT, started.size());
+
+        complete(0, 200);
+        assertEquals(MAX_IN_FLIGHT + 1, started.size());
+        assertTrue(responses.get(0).isDone());
+    }
+
+    @Test
+    void overloadHalvesTheLimitOncePerEpoch()
+    {
+        submit(WIKI, MAX_IN_FLIGHT);
+
+        // All of them were sent under the same limit, so only the first one lowers it.
+        for (var i = 0; i < MAX_IN_FLIGHT; i++) {
+            complete(i, 503);
+        }
+
+        submit(WIKI, MAX_IN_FLIGHT);
+        assertEquals(MAX_IN_FLIGHT + MAX_IN_FLIGHT / 2, started.size());
+    }
+
+    @Test
+    void overloadOfALaterEpochHalvesTheLimitAgain()
+    {
+        submit(WIKI, MAX_IN_FLIGHT);
+        for (var i = 0; i < MAX_IN_FLIGHT; i++) {
+            complete(i, 429);
+        }
+
+        // Sent under the lowered limit.
+        submit(WIKI, MAX_IN_FLIGHT / 2);
+        for (var i = MAX_IN_FLIGHT; i < started.size(); i++) {
+            complete(i, 503);
+        }
+
+        var before = started.size();
+        submit(WIKI, MAX_IN_FLIGHT);
+        assertEquals(MAX_IN_FLIGHT / 4, started.size() - before);
+    }
+
+    @Test
+    void limitGrowsBackAdditively()
+    {
+        submit(WIKI, MAX_IN_FLIGHT);
+        for (var i = 0; i < MAX_IN_FLIGHT; i++) {
+            complete(i, 503);
+        }
+
+        // The limit is 4: each success adds a quarter of a slot, so it takes about a full window of successes to get
+        // one more slot, not twice as many.
+        var before = started.size();
+        submit(WIKI, 5);
+        for (var i = before; i < before + 5; i++) {
+            complete(i, 200);
+        }
+
+        before = started.size();
+        submit(WIKI, MAX_IN_FLIGHT);
+        assertEquals(5, started.size() - before);
+    }
+
+    @Test
+    void limitNeverGoesBelowOne()
+    {
+        for (var round = 0; round < 6; round++) {
+            var before = started.size();
+            submit(WIKI, 1);
+            assertEquals(before + 1, started.size());
+            complete(before, 503);
+        }
+    }
+
+    @Test
+    void hostsAreServedInTurn()
+    {
+        scheduler.setMaxInFlight(1);
+        var first = submit(WIKI, 1).get(0);
+        var wikiResponses = submit(WIKI, 3);
+        var otherResponses = submit(OTHER_WIKI, 1);
+
+        assertEquals(1, started.size());
+        complete(0, 200);
+        assertTrue(first.isDone());
+
+        // The other host's request doesn't wait for all the requests of the first host.
+        complete(1, 200);
+        assertTrue(wikiResponses.get(0).isDone());
+        complete(2, 200);
+        assertTrue(otherResponses.get(0).isDone());
+    }
+
+    @Test
+    void isOverloaded()
+    {
+        assertTrue(RequestScheduler.isOverloaded(response(429), null));
+        assertTrue(RequestScheduler.isOverloaded(response(503), null));
+        assertFalse(RequestScheduler.isOverloaded(response(200), null));
+        assertFalse(RequestScheduler.isOverloaded(response(500), null));
+
+        assertTrue(RequestScheduler.isOverloaded(null, new HttpTimeoutException("Request timed out")));
+        assertTrue(RequestScheduler.isOverloaded(null, new HttpConnectTimeoutException("Connect timed out")));
+        assertTrue(RequestScheduler.isOverloaded(null,
+            new CompletionException(new HttpTimeoutException("Request timed out"))));
+
+        assertFalse(RequestScheduler.isOverloaded(null, new ConnectException("Connection refused")));
+        assertFalse(RequestScheduler.isOverloaded(null, new CompletionException(new UnknownHostException("wiki"))));
+    }
+
+    private List<CompletableFuture<HttpResponse<byte[]>>> submit(URI uri, int count)
+    {
+        var responses = new ArrayList<CompletableFuture<HttpResponse<byte[]>>>();
+        for (var i = 0; i < count; i++) {
+            responses.add(scheduler.submit(uri, () -> {
+                var response = new CompletableFuture<HttpResponse<byte[]>>();
+                started.add(response);
+                return response;
+            }));
+        }
+        return responses;
+    }
+
+    private void complete(int index, int status)
+    {
+        started.get(index).complete(response(status));
+    }
+
+    private static HttpResponse<byte[]> response(int status)
+    {
+        return new SimpleHttpResponse<>(status, HttpRequest.newBuilder(WIKI).build(),
+            HttpHeaders.of(Map.of(), (name, value) -> true), new byte[0], WIKI, HttpClient.Version.HTTP_1_1);
+    }
+}
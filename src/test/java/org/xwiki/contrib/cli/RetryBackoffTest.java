@@ -0,0 +1,110 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link RetryBackoff}.
+ *
+ * @version $Id$
+ */
+class RetryBackoffTest
+{
+    private static final int ROUNDS = 1000;
+
+    @Test
+    void delayStaysWithinTheExponentialBound()
+    {
+        long[] bounds = {250, 500, 1000, 2000, 4000, 8000, 8000, 8000};
+        for (var attempt = 1; attempt <= bounds.length; attempt++) {
+            for (var i = 0; i < ROUNDS; i++) {
+                var delay = RetryBackoff.getDelay(null, attempt);
+                assertTrue(delay >= 0 && delay <= bounds[attempt - 1],
+                    "Delay " + delay + " out of bounds for attempt " + attempt);
+            }
+        }
+    }
+
+    @Test
+    void delayIsJittered()
+    {
+        var first = RetryBackoff.getDelay(null, 5);
+        var differs = false;
+        for (var i = 0; i < ROUNDS && !differs; i++) {
+            differs = RetryBackoff.getDelay(null, 5) != first;
+        }
+        assertTrue(differs);
+    }
+
+    @Test
+    void delayIsAtLeastRetryAfterSeconds()
+    {
+        for (var i = 0; i < ROUNDS; i++) {
+            var delay = RetryBackoff.getDelay(response("3"), 1);
+            assertTrue(delay >= 3000 && delay <= 3000 + 250, "Delay " + delay);
+        }
+    }
+
+    @Test
+    void delayIsAtLeastRetryAfterDate()
+    {
+        var date = ZonedDateTime.now().plusSeconds(30).format(DateTimeFormatter.RFC_1123_DATE_TIME);
+        var delay = RetryBackoff.getDelay(response(date), 1);
+        assertTrue(delay > 25000 && delay <= 30000, "Delay " + delay);
+    }
+
+    @Test
+    void retryAfterIsCapped()
+    {
+        assertEquals(60000, RetryBackoff.getDelay(response("86400"), 1));
+    }
+
+    @Test
+    void invalidRetryAfterIsIgnored()
+    {
+        for (var i = 0; i < ROUNDS; i++) {
+            var delay = RetryBackoff.getDelay(response("soon"), 2);
+            assertTrue(delay >= 0 && delay <= 500, "Delay " + delay);
+        }
+    }
+
+    private static HttpResponse<byte[]> response(String retryAfter)
+    {
+        var uri = URI.create("http://localhost/rest");
+        var headers = HttpHeaders.of(Map.of("Retry-After", List.of(retryAfter)), (name, value) -> true);
+        return new SimpleHttpResponse<>(503, HttpRequest.newBuilder(uri).build(), headers, new byte[0], uri,
+            HttpClient.Version.HTTP_1_1);
+    }
+}
@@ -0,0 +1,400 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli.document;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+
+import org.dom4j.Element;
+import org.dom4j.io.OutputFormat;
+import org.dom4j.io.XMLWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.xwiki.contrib.cli.DocException;
+import org.xwiki.contrib.cli.Utils;
+import org.xwiki.contrib.cli.document.element.AttachmentInfo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Unit tests for {@link XARFileIndex}.
+ *
+ * @version $Id$
+ */
+class XARFileIndexTest
+{
+    private static final String DECLARATION = "<?xml version=\"1.1\" encoding=\"UTF-8\"?>\n\n";
+
+    private static final String CODE = "code";
+
+    private static final String CLASS_NAME = "className";
+
+    private static final String OBJECT_END = "</object>\n";
+
+    /**
+     * The files opened by the current process, on Linux.
+     */
+    private static final Path OPEN_FILES = Path.of("/proc/self/fd");
+
+    private static final String ATTACHMENT_NAME = "ïmage €.png";
+
+    /**
+     * Long enough for the parser to read it in several chunks, so some of its multi-byte characters are split between
+     * two of them.
+     */
+    private static final String MULTI_BYTE_TEXT = "é€😀 ü ".repeat(20000);
+
+    private static final byte[] ATTACHMENT = new byte[100_000];
+
+    static {
+        for (var i = 0; i < ATTACHMENT.length; i++) {
+            ATTACHMENT[i] = (byte) (i * 31);
+        }
+    }
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void markupInCDATAAndCommentsIsNotTakenForElements() throws Exception
+    {
+        var index = open(document());
+
+        var objects = index.getObjects();
+        assertEquals(2, objects.size());
+        var object = (Element) objects.get(0);
+        assertEquals("XWiki.StyleSheetExtension", object.elementText(CLASS_NAME));
+        assertEquals("a > b && </object> <object>", getCode(object));
+        assertEquals("XWiki.JavaScriptExtension", ((Element) objects.get(1)).elementText(CLASS_NAME));
+    }
+
+    @Test
+    void attributesMayContainGreaterThan() throws Exception
+    {
+        var index = open(document());
+
+        assertEquals("a > b", index.getRootElement().attributeValue("comment"));
+        var object = (Element) index.getObjects().get(0);
+        var name = object.elements("property").get(1).element("name");
+        assertEquals("c > d", name.attributeValue("note"));
+        assertEquals("x", name.getText());
+    }
+
+    @Test
+    void multiByteCharactersAreKept() throws Exception
+    {
+        var index = open(document());
+
+        var object = (Element) index.getObjects().get(1);
+        assertEquals(MULTI_BYTE_TEXT, getCode(object));
+
+        var document = index.parseDocument(new HashMap<>(), List.of());
+        assertEquals("Tïtle € 😀", document.getRootElement().elementText("title"));
+        var objects = document.getRootElement().elements("object");
+        assertEquals(MULTI_BYTE_TEXT, getCode(objects.get(1)));
+    }
+
+    @Test
+    void attachmentsAreReadWithoutParsingTheirContent() throws Exception
+    {
+        var index = open(document());
+
+        var attachments = List.copyOf(index.getAttachments());
+        assertEquals(List.of(new AttachmentInfo(ATTACHMENT_NAME, ATTACHMENT.length)), attachments);
+        try (var content = index.openAttachment(ATTACHMENT_NAME)) {
+            assertArrayEquals(ATTACHMENT, content.readAllBytes());
+        }
+        assertNull(index.openAttachment("missing.png"));
+    }
+
+    @Test
+    void attachmentContentIsLeftOutOfTheDocument() throws Exception
+    {
+        var index = open(document());
+
+        var contents = new HashMap<Element, AttachmentContent>();
+        var document = index.parseDocument(contents, List.of());
+
+        var contentElement = document.getRootElement().element("attachment").element("content");
+        assertEquals("", contentElement.getText());
+        assertEquals(1, contents.size());
+        try (var content = contents.get(contentElement).open()) {
+            assertArrayEquals(ATTACHMENT, content.readAllBytes());
+        }
+        // The rest of the document is parsed as usual.
+        assertEquals(2, document.getRootElement().elements("object").size());
+        assertEquals(ATTACHMENT_NAME, document.getRootElement().element("attachment").elementText("filename"));
+    }
+
+    @Test
+    void attachmentContentInCDATAIsParsed() throws Exception
+    {
+        var xml = DECLARATION + "<xwikidoc><attachment><filename>a.txt</filename><filesize>5</filesize>"
+            + "<content><![CDATA[" + Base64.getEncoder().encodeToString("hello".getBytes(StandardCharsets.UTF_8))
+            + "]]></content></attachment></xwikidoc>";
+        var index = open(xml);
+
+        try (var content = index.openAttachment("a.txt")) {
+            assertEquals("hello", new String(content.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        var contents = new HashMap<Element, AttachmentContent>();
+        var document = index.parseDocument(contents, List.of());
+        assertTrue(contents.isEmpty());
+        assertNotNull(document.getRootElement().element("attachment").elementText("content"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        DECLARATION + "<xwikidoc version=\"1.5\"/>",
+        DECLARATION + "<xwikidoc xmlns=\"http://www.xwiki.org\"><object/></xwikidoc>",
+        "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><xwikidoc><object/></xwikidoc>",
+        DECLARATION + "<!DOCTYPE xwikidoc><xwikidoc><object/></xwikidoc>",
+        DECLARATION + "<xwikidoc><object><number>0</number></xwikidoc>",
+        DECLARATION + "<xwikidoc><object><number>0</number></object>"
+    })
+    void unsupportedDocumentsAreNotIndexed(String xml) throws Exception
+    {
+        assertNull(open(xml));
+    }
+
+    @Test
+    void commentsAndProcessingInstructionsBeforeTheRootAreSkipped() throws Exception
+    {
+        var index = open("\uFEFF" + DECLARATION + "<!-- <object/> --><?pi <object/>?>\n<xwikidoc>"
+            + "<object><className>A</className></object><object/></xwikidoc>");
+
+        assertEquals(2, index.getObjects().size());
+        assertEquals("A", ((Element) index.getObjects().get(0)).elementText(CLASS_NAME));
+    }
+
+    @Test
+    void patchedFileIsParsedBack() throws Exception
+    {
+        var original = document();
+        var file = write(original);
+        var index = XARFileIndex.open(file);
+
+        var object = (Element) index.getObjects().get(0);
+        var property = object.elements("property").get(0).element(CODE);
+        property.setText("patched ü € 😀 < &");
+        var source = index.getSourceElement(property);
+        assertEquals(object, source);
+
+        var patched = directory.resolve("patched.xml");
+        try (var channel = FileChannel.open(patched, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            index.writePatched(List.of(source), channel, XARFileIndexTest::writeElement);
+        }
+
+        var patchedIndex = XARFileIndex.open(patched);
+        assertNotNull(patchedIndex);
+        var objects = patchedIndex.getObjects();
+        assertEquals(2, objects.size());
+        assertEquals("patched ü € 😀 < &", getCode((Element) objects.get(0)));
+        assertEquals(MULTI_BYTE_TEXT, getCode((Element) objects.get(1)));
+        try (var content = patchedIndex.openAttachment(ATTACHMENT_NAME)) {
+            assertArrayEquals(ATTACHMENT, content.readAllBytes());
+        }
+
+        // Only the region of the object changed.
+        var originalBytes = Files.readAllBytes(file);
+        var patchedBytes = Files.readAllBytes(patched);
+        var objectStart = original.indexOf("<object>");
+        var prefix = original.substring(0, objectStart).getBytes(StandardCharsets.UTF_8).length;
+        var objectEnd = original.indexOf(OBJECT_END, original.indexOf("<!-- </object> -->") + 1);
+        var suffix = original.substring(objectEnd + OBJECT_END.length()).getBytes(StandardCharsets.UTF_8).length;
+        assertArrayEquals(Arrays.copyOf(originalBytes, prefix), Arrays.copyOf(patchedBytes, prefix));
+        assertArrayEquals(Arrays.copyOfRange(originalBytes, originalBytes.length - suffix, originalBytes.length),
+            Arrays.copyOfRange(patchedBytes, patchedBytes.length - suffix, patchedBytes.length));
+    }
+
+    @Test
+    void changedElementsReplaceTheParsedOnes() throws Exception
+    {
+        var index = open(document());
+
+        var object = (Element) index.getObjects().get(1);
+        object.element(CLASS_NAME).setText("XWiki.Changed");
+
+        var document = index.parseDocument(new HashMap<>(), List.of(index.getSourceElement(object)));
+        var objects = document.getRootElement().elements("object");
+        assertEquals(2, objects.size());
+        assertEquals("XWiki.StyleSheetExtension", objects.get(0).elementText(CLASS_NAME));
+        assertEquals("XWiki.Changed", objects.get(1).elementText(CLASS_NAME));
+    }
+
+    @Test
+    void elementsNotParsedFromTheFileHaveNoSource() throws Exception
+    {
+        var index = open(document());
+
+        var element = Utils.parseXML("<object><number>0</number></object>").getRootElement();
+        assertNull(index.getSourceElement(element.element("number")));
+    }
+
+    @Test
+    void changesToTheFileAreDetected() throws Exception
+    {
+        var file = write(document());
+        var index = XARFileIndex.open(file);
+        assertFalse(index.isModified(file));
+
+        Files.writeString(file, "x", StandardOpenOption.APPEND);
+        assertTrue(index.isModified(file));
+
+        Files.delete(file);
+        assertTrue(index.isModified(file));
+    }
+
+    @Test
+    void theFileIsNotKeptOpen() throws Exception
+    {
+        assumeTrue(Files.isDirectory(OPEN_FILES), "Open files can't be listed");
+        var file = write(document());
+        var index = XARFileIndex.open(file);
+
+        index.getObjects();
+        index.getAttachments();
+        try (var in = index.openAttachment(ATTACHMENT_NAME)) {
+            assertArrayEquals(ATTACHMENT, in.readAllBytes());
+        }
+        var contents = new HashMap<Element, AttachmentContent>();
+        index.parseDocument(contents, List.of());
+        contents.values().iterator().next().writeBase64(Writer.nullWriter());
+
+        assertEquals(0, countOpen(file.toRealPath()));
+    }
+
+    @Test
+    void aFileReplacedWithAnotherSizeIsNotRead() throws Exception
+    {
+        var file = write(document());
+        var index = XARFileIndex.open(file);
+
+        var replacement = write(document().replace(CODE, "other"));
+        Files.move(replacement, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        assertThrows(DocException.class, index::getAttachments);
+    }
+
+    private XARFileIndex open(String xml) throws Exception
+    {
+        return XARFileIndex.open(write(xml));
+    }
+
+    private Path write(String xml) throws IOException
+    {
+        var file = Files.createTempFile(directory, "document", ".xml");
+        Files.writeString(file, xml, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static long countOpen(Path file) throws IOException
+    {
+        try (var descriptors = Files.list(OPEN_FILES)) {
+            return descriptors.filter(descriptor -> {
+                try {
+                    return Files.readSymbolicLink(descriptor).equals(file);
+                } catch (IOException e) {
+                    // Closed since it was listed.
+                    return false;
+                }
+            }).count();
+        }
+    }
+
+    private static String getCode(Element object)
+    {
+        for (var property : object.elements("property")) {
+            var code = property.element(CODE);
+            if (code != null) {
+                return code.getText();
+            }
+        }
+        return null;
+    }
+
+    private static void writeElement(Element element, OutputStream out) throws IOException
+    {
+        var writer = new XMLWriter(out, new OutputFormat());
+        writer.write(element);
+        writer.flush();
+    }
+
+    private static String document()
+    {
+        var base64 = Base64.getMimeEncoder(76, "\n".getBytes(StandardCharsets.US_ASCII)).encodeToString(ATTACHMENT);
+        return DECLARATION
+            + "<xwikidoc version=\"1.5\" reference=\"Main.WebHome\" locale=\"\" comment=\"a > b\">\n"
+            + "  <web>Main</web>\n"
+            + "  <name>WebHome</name>\n"
+            + "  <title>Tïtle € 😀</title>\n"
+            + "  <content><![CDATA[Some <object> in the content]]></content>\n"
+            + "  <!-- <object><className>Commented</className></object> -->\n"
+            + "  <attachment>\n"
+            + "    <filename>" + ATTACHMENT_NAME + "</filename>\n"
+            + "    <filesize>" + ATTACHMENT.length + "</filesize>\n"
+            + "    <content>" + base64 + "</content>\n"
+            + "  </attachment>\n"
+            + "  <object>\n"
+            + "    <name>Main.WebHome</name>\n"
+            + "    <number>0</number>\n"
+            + "    <className>XWiki.StyleSheetExtension</className>\n"
+            + "    <property>\n"
+            + "      <code><![CDATA[a > b && </object> <object>]]></code>\n"
+            + "    </property>\n"
+            + "    <property>\n"
+            + "      <name note=\"c > d\">x</name>\n"
+            + "    </property>\n"
+            + "    <!-- </object> -->\n"
+            + "    <property><empty/></property>\n"
+            + "  </object>\n"
+            + "  <object>\n"
+            + "    <name>Main.WebHome</name>\n"
+            + "    <number>0</number>\n"
+            + "    <className>XWiki.JavaScriptExtension</className>\n"
+            + "    <property>\n"
+            + "      <code>" + MULTI_BYTE_TEXT + "</code>\n"
+            + "    </property>\n"
+            + "  </object>\n"
+            + "</xwikidoc>\n";
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli.document;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for {@link XMLBody}.
+ *
+ * @version $Id$
+ */
+class XMLBodyTest
+{
+    @Test
+    void textIsEscapedButNotMarkup() throws Exception
+    {
+        var body = new XMLBody().append("<page a='&amp;'>").appendElement("title", "a & 'b' <\"c\">")
+            .append("</page>");
+
+        assertEquals("<page a='&amp;'><title>a &amp; &apos;b&apos; &lt;&quot;c&quot;&gt;</title></page>", send(body));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "",
+        "ascii & <markup>",
+        "é ü ß",
+        "€ 中文",
+        "😀 𝄞 & 😀",
+        // Unpaired surrogates
+        "a\ud83d b",
+        "\ude00 \ud83d"
+    })
+    void lengthIsTheLengthOfTheSentBody(String text) throws Exception
+    {
+        var body = new XMLBody().append("<" + text + ">").appendElement("content", text);
+
+        var sent = send(body).getBytes(StandardCharsets.UTF_8);
+        assertEquals(sent.length, body.getLength());
+        assertEquals(sent.length, body.toBodyPublisher().contentLength());
+    }
+
+    @Test
+    void lengthIsUpdatedWhenTextIsAppended() throws Exception
+    {
+        var body = new XMLBody().appendEscaped("<");
+        assertEquals(4, body.getLength());
+
+        body.append("é");
+        assertEquals(6, body.getLength());
+    }
+
+    private static String send(XMLBody body) throws Exception
+    {
+        var out = new ByteArrayOutputStream();
+        var done = new CompletableFuture<Void>();
+        body.toBodyPublisher().subscribe(new Flow.Subscriber<ByteBuffer>()
+        {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription)
+            {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item)
+            {
+                var bytes = new byte[item.remaining()];
+                item.get(bytes);
+                out.writeBytes(bytes);
+            }
+
+            @Override
+            public void onError(Throwable throwable)
+            {
+                done.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete()
+            {
+                done.complete(null);
+            }
+        });
+        done.get(10, TimeUnit.SECONDS);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
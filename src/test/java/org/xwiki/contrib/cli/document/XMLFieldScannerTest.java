@@ -0,0 +1,125 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xwiki.contrib.cli.document;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.xwiki.contrib.cli.Command;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Unit tests for {@link XMLFieldScanner}.
+ *
+ * @version $Id$
+ */
+class XMLFieldScannerTest
+{
+    private static final String TITLE = "title";
+
+    private static final String CONTENT = "content";
+
+    private static final Set<String> FIELDS = Set.of(TITLE, CONTENT);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void entitiesAndCDATAAreDecoded()
+    {
+        var fields = XMLFieldScanner.scan("<xwikidoc><title>a &amp; b &lt;c&gt; &#233;&#x20AC;</title>"
+            + "<content>x <![CDATA[<b>&amp;</b>]]> y &quot;</content></xwikidoc>", FIELDS);
+
+        assertEquals(Map.of(TITLE, "a & b <c> é€", CONTENT, "x <b>&amp;</b> y \""), fields);
+    }
+
+    @Test
+    void readingStopsOnceAllTheFieldsWereFound()
+    {
+        // The rest of the document is not even well-formed, it would be rejected if it was read.
+        var fields = XMLFieldScanner.scan("<xwikidoc><title>T</title><content>C</content><object><a></b>", FIELDS);
+
+        assertEquals(Map.of(TITLE, "T", CONTENT, "C"), fields);
+    }
+
+    @Test
+    void onlyTheFirstChildrenOfTheRootAreRead()
+    {
+        var fields = XMLFieldScanner.scan("<xwikidoc><object><title>Object</title></object><title>Page</title>"
+            + "<title>Other</title><attachment><content>AAAA</content></attachment></xwikidoc>", FIELDS);
+
+        // There is no content field, only the one of an attachment.
+        assertEquals(Map.of(TITLE, "Page"), fields);
+    }
+
+    @Test
+    void fileEncodingIsDetected() throws Exception
+    {
+        var file = directory.resolve("latin.xml");
+        Files.write(file, "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><xwikidoc><title>Tïtle</title></xwikidoc>"
+            .getBytes(StandardCharsets.ISO_8859_1));
+
+        assertEquals(Map.of(TITLE, "Tïtle"), XMLFieldScanner.scan(file, FIELDS));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        // A field with markup needs the DOM.
+        "<xwikidoc><title>a<b>b</b></title><content/></xwikidoc>",
+        "<!DOCTYPE xwikidoc><xwikidoc><title>T</title><content/></xwikidoc>",
+        "<xwikidoc><title>T</tilte><content/></xwikidoc>",
+        "<xwikidoc><title>&undefined;</title><content/></xwikidoc>"
+    })
+    void documentsWhichNeedTheDOMAreNotScanned(String xml)
+    {
+        assertNull(XMLFieldScanner.scan(xml, FIELDS));
+    }
+
+    @Test
+    void fieldsAreReadFromTheDOMWhenTheyCantBeScanned() throws Exception
+    {
+        var file = directory.resolve("document.xml");
+        Files.writeString(file, "<?xml version=\"1.1\" encoding=\"UTF-8\"?>\n\n<xwikidoc><title>a<i>b</i>c</title>"
+            + "<content>Content</content><syntaxId>xwiki/2.1</syntaxId></xwikidoc>");
+
+        var document = new XMLFileDoc(command(), file.toString());
+
+        // The text of the element itself, as the DOM gives it.
+        assertEquals("ac", document.getTitle());
+        assertEquals("Content", document.getContent());
+        assertEquals("xwiki/2.1", document.getSyntaxId());
+    }
+
+    private static Command command()
+    {
+        return new Command(null, null, null, null, null, null, null, null, false, false, null, null, null, null,
+            Map.of(), null, null, null, null, null, null, null, null, false, null, false, false, false, 0, 0, 0, 0);
+    }
+}